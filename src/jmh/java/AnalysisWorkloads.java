@@ -0,0 +1,68 @@
+import benchmarks.AnalysisWorkload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AnalysisWorkloads implements AnalysisWorkload {
+    private final SpotifyAPIService api = new OfflineSpotifyAPIService();
+    private StreamingHistoryDataset dataset;
+    private List<StreamingHistoryEntry> entries;
+
+    @Override
+    public void prepare(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            dataset = SpotifyDataService.parseCsvColumnar(in);
+        }
+        // Materialized like the list parseCsv returns, so the streams do not measure row decoding
+        entries = new ArrayList<>(dataset.asEntries());
+    }
+
+    @Override
+    public Object topSongsEntries() {
+        return new TopSongsAnalysis().analyze(entries, api);
+    }
+
+    @Override
+    public Object topArtistsEntries() {
+        return new TopArtistsAnalysis().analyze(entries, api).join();
+    }
+
+    @Override
+    public Object topAlbumsEntries() {
+        return new TopAlbumsAnalysis().analyze(entries, api).join();
+    }
+
+    @Override
+    public Object exploreEntries() {
+        return new ExploreStatisticsAnalysis().analyze(entries, api);
+    }
+
+    @Override
+    public Object topSongsColumnar() {
+        return new TopSongsAnalysis().analyze(dataset, api);
+    }
+
+    @Override
+    public Object topArtistsColumnar() {
+        return new TopArtistsAnalysis().analyze(dataset, api).join();
+    }
+
+    @Override
+    public Object topAlbumsColumnar() {
+        return new TopAlbumsAnalysis().analyze(dataset, api).join();
+    }
+
+    @Override
+    public Object exploreColumnar() {
+        return new ExploreStatisticsAnalysis().analyze(dataset, api);
+    }
+
+    @Override
+    public Object buildRollups() {
+        return PlayRollups.build(dataset);
+    }
+}
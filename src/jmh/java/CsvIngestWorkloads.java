@@ -0,0 +1,28 @@
+import benchmarks.CsvIngestWorkload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+public class CsvIngestWorkloads implements CsvIngestWorkload {
+    @Override
+    public Object parseEntries(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return SpotifyDataService.parseCsv(in);
+        }
+    }
+
+    @Override
+    public Object parseColumnar(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return SpotifyDataService.parseCsvColumnar(in);
+        }
+    }
+
+    @Override
+    public Object parseParallel(Path file, ExecutorService executor, int threads) throws IOException {
+        return ParallelCsvIngest.parse(file, executor, threads);
+    }
+}
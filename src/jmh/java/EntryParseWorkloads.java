@@ -0,0 +1,58 @@
+import benchmarks.EntryParseWorkload;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EntryParseWorkloads implements EntryParseWorkload {
+    private static final String[] COLUMNS = {"ts", "ms_played", "master_metadata_track_name",
+            "master_metadata_album_artist_name", "master_metadata_album_album_name", "spotify_track_uri",
+            "reason_start", "reason_end"};
+
+    private String[][] rows;
+
+    @Override
+    public void prepare(Path file) throws IOException {
+        List<String[]> fields = new ArrayList<>();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             CSVParser parser = CSVParser.parse(reader, CSVFormat.DEFAULT.builder()
+                     .setHeader()
+                     .setSkipHeaderRecord(true)
+                     .build())) {
+            for (CSVRecord record : parser) {
+                String[] row = new String[COLUMNS.length];
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    row[i] = record.get(COLUMNS[i]);
+                }
+                fields.add(row);
+            }
+        }
+        rows = fields.toArray(new String[0][]);
+    }
+
+    @Override
+    public Object constructEntries() {
+        List<StreamingHistoryEntry> entries = new ArrayList<>(rows.length);
+        for (String[] row : rows) {
+            entries.add(new StreamingHistoryEntry(row[0], row[1], row[2], row[3], row[4], row[5], row[6], row[7]));
+        }
+        return entries;
+    }
+
+    @Override
+    public Object buildColumns() {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        for (String[] row : rows) {
+            builder.add(EpochTime.parseUtcTimestamp(row[0]), Long.parseLong(row[1]),
+                    row[2], row[3], row[4], row[5], row[6], row[7]);
+        }
+        return builder.build();
+    }
+}
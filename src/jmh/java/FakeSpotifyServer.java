@@ -0,0 +1,72 @@
+import com.google.gson.Gson;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Local stand-in for the Spotify search API with artificial latency and throttling, for checking the
+// concurrent lookups and 429 handling of SpotifyAPIService without touching the real API:
+//
+//   mvn -Pbenchmark compile exec:java -Dexec.mainClass=FakeSpotifyServer -Dexec.args="8089 200 5"
+//
+// serves on port 8089, answers after 200 ms and rejects every 5th search with 429. Point the app at it with
+// -Dspotify.api.scheme=http -Dspotify.api.host=localhost -Dspotify.api.port=8089 -Dspotify.api.accessToken=fake
+public class FakeSpotifyServer {
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final Gson GSON = new Gson();
+
+    private final long latencyMillis;
+    private final int throttleEvery;
+    private final AtomicInteger searches = new AtomicInteger();
+
+    public FakeSpotifyServer(long latencyMillis, int throttleEvery) {
+        this.latencyMillis = latencyMillis;
+        this.throttleEvery = throttleEvery;
+    }
+
+    public Javalin start(int port) {
+        return Javalin.create(config -> config.useVirtualThreads = true)
+                .get("/v1/search", this::search)
+                .start(port);
+    }
+
+    private void search(Context ctx) throws InterruptedException {
+        int count = searches.incrementAndGet();
+        Thread.sleep(latencyMillis);
+        if (throttleEvery > 0 && count % throttleEvery == 0) {
+            ctx.status(429).header("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            json(ctx, Map.of("error", Map.of("status", 429, "message", "API rate limit exceeded")));
+            return;
+        }
+
+        String query = ctx.queryParam("q") == null ? "" : ctx.queryParam("q");
+        String type = "album".equals(ctx.queryParam("type")) ? "album" : "artist";
+        String id = Integer.toHexString(query.hashCode());
+        Map<String, Object> item = Map.of(
+                "id", id,
+                "name", query,
+                "type", type,
+                "uri", "spotify:" + type + ":" + id);
+        json(ctx, Map.of(type + "s", Map.of(
+                "href", ctx.fullUrl(),
+                "items", List.of(item),
+                "limit", 1,
+                "offset", 0,
+                "total", 1)));
+    }
+
+    private static void json(Context ctx, Object body) {
+        ctx.contentType("application/json").result(GSON.toJson(body));
+    }
+
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int throttleEvery = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        new FakeSpotifyServer(latencyMillis, throttleEvery).start(port);
+        System.out.println("Fake Spotify API on port " + port + ", " + latencyMillis + " ms latency"
+                + (throttleEvery > 0 ? ", every " + throttleEvery + "th search throttled" : ""));
+    }
+}
@@ -0,0 +1,48 @@
+import benchmarks.JsonWorkload;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class JsonWorkloads implements JsonWorkload {
+    private final Gson gson = SpotifyDataController.createGson();
+    private Object topSongs;
+    private Object plays;
+    private Object dashboard;
+
+    @Override
+    public void prepare(Path file) throws IOException {
+        StreamingHistoryDataset dataset;
+        try (InputStream in = Files.newInputStream(file)) {
+            dataset = SpotifyDataService.parseCsvColumnar(in);
+        }
+        SpotifyAPIService api = new OfflineSpotifyAPIService();
+        topSongs = new TopSongsAnalysis().analyze(dataset, api);
+        plays = new PlaysInRangeAnalysis(null, null, null, PlaysInRangeAnalysis.MAX_LIMIT).analyze(dataset, api);
+        dashboard = new DashboardAnalysis(List.of(), null, null, null).analyze(dataset, api).join();
+    }
+
+    @Override
+    public byte[] topSongs() {
+        return serialize(topSongs);
+    }
+
+    @Override
+    public byte[] plays() {
+        return serialize(plays);
+    }
+
+    @Override
+    public byte[] dashboard() {
+        return serialize(dashboard);
+    }
+
+    // As the controller does it: to a String, then to UTF-8
+    private byte[] serialize(Object value) {
+        return gson.toJson(value, value.getClass()).getBytes(StandardCharsets.UTF_8);
+    }
+}
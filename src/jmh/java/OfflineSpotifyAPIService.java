@@ -0,0 +1,32 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Spotify API stand-in for benchmarks: lookups complete at once with made-up IDs, so a measurement never
+// includes the network, the token endpoint or the ID cache on disk
+public class OfflineSpotifyAPIService extends SpotifyAPIService {
+    @Override
+    public CompletableFuture<List<String>> getArtistIds(List<String> artistNames) {
+        List<String> ids = new ArrayList<>(artistNames.size());
+        for (String name : artistNames) {
+            ids.add(offlineId(name));
+        }
+        return CompletableFuture.completedFuture(ids);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getAlbumUris(List<Map.Entry<String, Long>> albumArtistPairs) {
+        List<String> uris = new ArrayList<>(albumArtistPairs.size());
+        for (Map.Entry<String, Long> pair : albumArtistPairs) {
+            uris.add("spotify:album:" + offlineId(pair.getKey()));
+        }
+        return CompletableFuture.completedFuture(uris);
+    }
+
+    // 22 base-62-ish characters like a real ID, derived from the name so results are stable
+    private static String offlineId(String name) {
+        String hash = Long.toString(name.hashCode() & 0xffffffffL, 36);
+        return (hash + "0000000000000000000000").substring(0, 22);
+    }
+}
@@ -0,0 +1,131 @@
+import benchmarks.ResponseWriteWorkload;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class ResponseWriteWorkloads implements ResponseWriteWorkload {
+    // The server's default -Dspotify.response.bufferBytes
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    private final Gson gson = SpotifyDataController.createGson();
+    private final GsonJsonMapper mapper = new GsonJsonMapper(gson);
+    private Map<String, Object> result;
+
+    @Override
+    public void prepare(Path file, int rows) throws IOException {
+        StreamingHistoryDataset dataset;
+        try (InputStream in = Files.newInputStream(file)) {
+            dataset = SpotifyDataService.parseCsvColumnar(in);
+        }
+        List<StreamingHistoryEntry> plays = new ArrayList<>(dataset.asEntries().subList(0, rows));
+        result = new LinkedHashMap<>();
+        result.put("total", plays.size());
+        result.put("plays", plays);
+
+        Sink gzipped = new Sink(false);
+        try (OutputStream gzip = new GZIPOutputStream(gzipped, 8192)) {
+            mapper.writeJson(result, result.getClass(), gzip);
+        }
+        System.out.println(rows + " rows: " + wholeString() + " bytes, " + gzipped.bytes + " gzipped");
+    }
+
+    @Override
+    public long wholeString() {
+        return wholeString(new Sink(false));
+    }
+
+    @Override
+    public long streamed() {
+        return streamed(new Sink(false));
+    }
+
+    @Override
+    public long firstByteWholeString() {
+        try {
+            return wholeString(new Sink(true));
+        } catch (FirstByte e) {
+            return 1;
+        }
+    }
+
+    @Override
+    public long firstByteStreamed() {
+        try {
+            return streamed(new Sink(true));
+        } catch (FirstByte e) {
+            return 1;
+        }
+    }
+
+    @Override
+    public long streamedGzip() {
+        Sink sink = new Sink(false);
+        try (OutputStream gzip = new GZIPOutputStream(sink, 8192)) {
+            streamed(gzip);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sink.bytes;
+    }
+
+    // As the controller did it: one String, one byte[] copy of it, then the response
+    private long wholeString(Sink sink) {
+        byte[] json = gson.toJson(result, result.getClass()).getBytes(StandardCharsets.UTF_8);
+        sink.write(json, 0, json.length);
+        return sink.bytes;
+    }
+
+    private long streamed(OutputStream client) {
+        SpillingOutputStream out = new SpillingOutputStream(BUFFER_BYTES, () -> client);
+        try {
+            mapper.writeJson(result, result.getClass(), out);
+            if (!out.isSpilled()) {
+                byte[] json = out.toByteArray();
+                client.write(json, 0, json.length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.size();
+    }
+
+    // Stands in for the client connection
+    private static final class Sink extends OutputStream {
+        private final boolean stopAtFirstByte;
+        private long bytes;
+
+        Sink(boolean stopAtFirstByte) {
+            this.stopAtFirstByte = stopAtFirstByte;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (stopAtFirstByte) {
+                throw new FirstByte();
+            }
+            bytes += len;
+        }
+    }
+
+    private static final class FirstByte extends RuntimeException {
+        FirstByte() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import benchmarks.TopKWorkload;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+public class TopKWorkloads implements TopKWorkload {
+    private static final Comparator<Map.Entry<String, Long>> BY_MINUTES =
+            Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+
+    private Map<String, Long> totalsByKey;
+    private long[] totals;
+    private String[] keys;
+    private int k;
+
+    @Override
+    public void prepare(int distinctKeys, int k) {
+        SplittableRandom random = new SplittableRandom(7);
+        this.k = k;
+        totals = new long[distinctKeys];
+        keys = new String[distinctKeys];
+        totalsByKey = new HashMap<>();
+        for (int i = 0; i < distinctKeys; i++) {
+            double u = random.nextDouble();
+            totals[i] = (long) (1 / (u + 1e-4)); // Long tail with plenty of ties
+            keys[i] = "spotify:track:" + i;
+            totalsByKey.put(keys[i], totals[i]);
+        }
+    }
+
+    @Override
+    public Object sortAll() {
+        return totalsByKey.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
+                .limit(k)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Object heapCollector() {
+        List<Map.Entry<String, Long>> top = totalsByKey.entrySet().stream()
+                .collect(TopK.collector(k, BY_MINUTES));
+        return top;
+    }
+
+    @Override
+    public Object primitiveHeap() {
+        return TopK.largest(totals, totals.length, k, (a, b) -> keys[a].compareTo(keys[b]));
+    }
+}
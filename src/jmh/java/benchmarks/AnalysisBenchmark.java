@@ -0,0 +1,87 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Top songs/artists/albums and explore statistics, entry streams against the columnar dataset, from a
+// small export up to a decade of heavy listening. Spotify lookups go to an offline stand-in.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class AnalysisBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int plays;
+
+    private AnalysisWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path file = SyntheticHistory.tempCsv(plays, SyntheticHistory.distinctTracks(plays));
+        workload = Workloads.load(AnalysisWorkload.class, "AnalysisWorkloads");
+        workload.prepare(file);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object topSongsEntries() {
+        return workload.topSongsEntries();
+    }
+
+    @Benchmark
+    public Object topArtistsEntries() {
+        return workload.topArtistsEntries();
+    }
+
+    @Benchmark
+    public Object topAlbumsEntries() {
+        return workload.topAlbumsEntries();
+    }
+
+    @Benchmark
+    public Object exploreEntries() {
+        return workload.exploreEntries();
+    }
+
+    @Benchmark
+    public Object topSongsColumnar() {
+        return workload.topSongsColumnar();
+    }
+
+    @Benchmark
+    public Object topArtistsColumnar() {
+        return workload.topArtistsColumnar();
+    }
+
+    @Benchmark
+    public Object topAlbumsColumnar() {
+        return workload.topAlbumsColumnar();
+    }
+
+    @Benchmark
+    public Object exploreColumnar() {
+        return workload.exploreColumnar();
+    }
+
+    @Benchmark
+    public Object buildRollups() {
+        return workload.buildRollups();
+    }
+}
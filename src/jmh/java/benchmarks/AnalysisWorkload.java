@@ -0,0 +1,31 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface AnalysisWorkload {
+    // Parses the file once into the columnar dataset and a materialized entry list
+    void prepare(Path file) throws IOException;
+
+    // groupingBy and distinct() streams over StreamingHistoryEntry objects
+    Object topSongsEntries();
+
+    Object topArtistsEntries();
+
+    Object topAlbumsEntries();
+
+    Object exploreEntries();
+
+    // The same analyses over the dataset's rollups and columns
+    Object topSongsColumnar();
+
+    Object topArtistsColumnar();
+
+    Object topAlbumsColumnar();
+
+    Object exploreColumnar();
+
+    // The per-month rollups built from scratch, as for a dataset mapped from its snapshot; partitioned
+    // across the scan pool above -Dspotify.analysis.parallelThreshold rows
+    Object buildRollups();
+}
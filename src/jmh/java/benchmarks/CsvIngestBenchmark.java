@@ -0,0 +1,56 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Current commons-csv path against the byte-level columnar reader on the same file, up to ten million rows
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class CsvIngestBenchmark {
+
+    @Param({"10000", "100000", "1000000", "3000000", "10000000"})
+    public int plays;
+
+    private Path file;
+    private CsvIngestWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = SyntheticHistory.tempCsv(plays, 50_000);
+        workload = Workloads.load(CsvIngestWorkload.class, "CsvIngestWorkloads");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object commonsCsvEntries() throws IOException {
+        return workload.parseEntries(file);
+    }
+
+    @Benchmark
+    public Object byteReaderColumnar() throws IOException {
+        return workload.parseColumnar(file);
+    }
+}
@@ -0,0 +1,16 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+public interface CsvIngestWorkload {
+    // commons-csv into StreamingHistoryEntry objects
+    Object parseEntries(Path file) throws IOException;
+
+    // Byte-level reader into the columnar dataset
+    Object parseColumnar(Path file) throws IOException;
+
+    // Row-aligned chunks parsed on the given pool
+    Object parseParallel(Path file, ExecutorService executor, int threads) throws IOException;
+}
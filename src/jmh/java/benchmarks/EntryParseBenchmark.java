@@ -0,0 +1,51 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Turning already split CSV fields into rows: the entry constructor against the columnar builder
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class EntryParseBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int plays;
+
+    private EntryParseWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path file = SyntheticHistory.tempCsv(plays, SyntheticHistory.distinctTracks(plays));
+        workload = Workloads.load(EntryParseWorkload.class, "EntryParseWorkloads");
+        workload.prepare(file);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object constructEntries() {
+        return workload.constructEntries();
+    }
+
+    @Benchmark
+    public Object buildColumns() {
+        return workload.buildColumns();
+    }
+}
@@ -0,0 +1,16 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface EntryParseWorkload {
+    // Reads the file's fields into memory, so only the per-row conversion is measured
+    void prepare(Path file) throws IOException;
+
+    // StreamingHistoryEntry's String constructor: DateTimeFormatter into LocalDateTime, minutes from ms_played
+    Object constructEntries();
+
+    // What the columnar reader does with the same fields: EpochTime seconds and dictionary codes, plus the
+    // rollups and time index that build() adds
+    Object buildColumns();
+}
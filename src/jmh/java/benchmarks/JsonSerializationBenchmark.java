@@ -0,0 +1,51 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Gson with the server's configuration, from analysis result to response bytes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+    private JsonWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path file = SyntheticHistory.tempCsv(100_000, SyntheticHistory.distinctTracks(100_000));
+        workload = Workloads.load(JsonWorkload.class, "JsonWorkloads");
+        workload.prepare(file);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public byte[] topSongs() {
+        return workload.topSongs();
+    }
+
+    @Benchmark
+    public byte[] plays() {
+        return workload.plays();
+    }
+
+    @Benchmark
+    public byte[] dashboard() {
+        return workload.dashboard();
+    }
+}
@@ -0,0 +1,18 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface JsonWorkload {
+    // Computes the results once; the benchmarks only serialize them
+    void prepare(Path file) throws IOException;
+
+    // A short list of track URIs, like the top-* analyses
+    byte[] topSongs();
+
+    // The plays endpoint at its maximum limit: entries with LocalDateTime timestamps
+    byte[] plays();
+
+    // All dashboard sections in one map
+    byte[] dashboard();
+}
@@ -0,0 +1,136 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Mixed traffic against a running server: a share of heavy requests that upload and parse a fresh CSV,
+// the rest cheap queries against a dataset uploaded once up front. Prints latency percentiles per kind,
+// so the effect of slow uploads on cheap requests (and 503 shedding) is visible:
+//
+//   mvn -Pbenchmark compile exec:java -Dexec.mainClass=benchmarks.LoadTest \
+//       -Dexec.args="http://localhost:7070 30 64 0.1"
+//
+// arguments: base URL, duration in seconds, concurrent clients, share of heavy requests. Start the server
+// with a small -Dspotify.cache.maxBytes so the heavy uploads are parsed every time.
+public final class LoadTest {
+    private static final int HEAVY_PLAYS = 200_000;
+    private static final int HEAVY_VARIANTS = 8;
+    private static final Pattern DATASET_ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+
+    private record Sample(boolean heavy, int status, long nanos) {
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:7070";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        double heavyShare = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+        List<Path> heavyFiles = new ArrayList<>();
+        for (int i = 0; i < HEAVY_VARIANTS; i++) {
+            Path file = Files.createTempFile("load-test-", ".csv");
+            file.toFile().deleteOnExit();
+            SyntheticHistory.writeCsv(file, HEAVY_PLAYS, 20_000, 1000L + i);
+            heavyFiles.add(file);
+        }
+        Path small = SyntheticHistory.tempCsv(20_000, 2_000);
+        HttpResponse<String> created = http.send(upload(baseUrl + "/datasets", small), HttpResponse.BodyHandlers.ofString());
+        Matcher id = DATASET_ID.matcher(created.body());
+        if (created.statusCode() != 201 || !id.find()) {
+            throw new IOException("Upload failed: " + created.statusCode() + " " + created.body());
+        }
+        String datasetUrl = baseUrl + "/datasets/" + id.group(1);
+        List<String> cheapPaths = List.of("/analyze/top-songs", "/analyze/explore", "/analyze/top-songs/year/2016");
+
+        List<Sample> samples = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < clients; client++) {
+                executor.execute(() -> {
+                    List<Sample> own = new ArrayList<>();
+                    while (System.nanoTime() < deadline) {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        boolean heavy = random.nextDouble() < heavyShare;
+                        long start = System.nanoTime();
+                        try {
+                            HttpRequest request = heavy
+                                    ? upload(baseUrl + "/analyze/top-songs", heavyFiles.get(random.nextInt(heavyFiles.size())))
+                                    : HttpRequest.newBuilder(URI.create(datasetUrl + cheapPaths.get(random.nextInt(cheapPaths.size()))))
+                                            .timeout(Duration.ofSeconds(60)).build();
+                            HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+                            own.add(new Sample(heavy, response.statusCode(), System.nanoTime() - start));
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    synchronized (samples) {
+                        samples.addAll(own);
+                    }
+                });
+            }
+        }
+
+        System.out.printf("%d clients, %d s, %.0f%% heavy, %d connection failures%n",
+                clients, seconds, heavyShare * 100, failures.get());
+        report("cheap", samples.stream().filter(sample -> !sample.heavy()).toList());
+        report("heavy", samples.stream().filter(Sample::heavy).toList());
+    }
+
+    private static void report(String kind, List<Sample> samples) {
+        long[] ok = samples.stream().filter(sample -> sample.status() < 400).mapToLong(Sample::nanos).sorted().toArray();
+        long shed = samples.stream().filter(sample -> sample.status() == 503).count();
+        long errors = samples.size() - ok.length - shed;
+        if (ok.length == 0) {
+            System.out.printf("%-6s no successful requests, %d shed (503), %d errors%n", kind, shed, errors);
+            return;
+        }
+        System.out.printf("%-6s %7d ok  p50 %8.1f ms  p90 %8.1f ms  p99 %8.1f ms  max %8.1f ms  %d shed (503), %d errors%n",
+                kind, ok.length, millis(ok, 0.50), millis(ok, 0.90), millis(ok, 0.99),
+                ok[ok.length - 1] / 1e6, shed, errors);
+    }
+
+    private static double millis(long[] sortedNanos, double quantile) {
+        int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(quantile * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private static HttpRequest upload(String url, Path file) throws IOException {
+        String boundary = "----load-test-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + file.getFileName() + "\"\r\n"
+                + "Content-Type: text/csv\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(120))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofByteArray(head),
+                        HttpRequest.BodyPublishers.ofFile(file),
+                        HttpRequest.BodyPublishers.ofByteArray(tail)))
+                .build();
+    }
+}
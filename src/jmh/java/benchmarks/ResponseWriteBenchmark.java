@@ -0,0 +1,68 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Large analysis responses: building the JSON as one String against streaming it through a JsonWriter,
+// for the whole body and for time to first byte. The setup prints identity and gzip sizes per row count,
+// and the gc profiler shows the bytes allocated per response.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ResponseWriteBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int rows;
+
+    private ResponseWriteWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path file = SyntheticHistory.tempCsv(100_000, SyntheticHistory.distinctTracks(100_000));
+        workload = Workloads.load(ResponseWriteWorkload.class, "ResponseWriteWorkloads");
+        workload.prepare(file, rows);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long wholeString() {
+        return workload.wholeString();
+    }
+
+    @Benchmark
+    public long streamed() {
+        return workload.streamed();
+    }
+
+    @Benchmark
+    public long firstByteWholeString() {
+        return workload.firstByteWholeString();
+    }
+
+    @Benchmark
+    public long firstByteStreamed() {
+        return workload.firstByteStreamed();
+    }
+
+    @Benchmark
+    public long streamedGzip() {
+        return workload.streamedGzip();
+    }
+}
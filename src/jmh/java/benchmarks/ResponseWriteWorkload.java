@@ -0,0 +1,23 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface ResponseWriteWorkload {
+    // A plays-in-range style result with the first `rows` plays of the file
+    void prepare(Path file, int rows) throws IOException;
+
+    // Before: Gson to a String, then UTF-8 bytes, then the whole body to the client
+    long wholeString();
+
+    // After: JsonWriter into a buffer that passes on to the client once the result outgrows it
+    long streamed();
+
+    // The same two paths, stopped at the first byte that reaches the client
+    long firstByteWholeString();
+
+    long firstByteStreamed();
+
+    // Streamed through gzip, as for a client that accepts it
+    long streamedGzip();
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+
+// Deterministic extended-streaming-history CSV with skewed track popularity. The same seed always yields
+// the same bytes, so benchmark runs are comparable across machines and commits.
+public final class SyntheticHistory {
+    static final String HEADER = "ts,platform,ms_played,conn_country,ip_addr,master_metadata_track_name,"
+            + "master_metadata_album_artist_name,master_metadata_album_album_name,spotify_track_uri,"
+            + "reason_start,reason_end,shuffle,skipped,offline";
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private static final String[] REASONS_START = {"trackdone", "clickrow", "fwdbtn", "backbtn", "playbtn", "appload"};
+    private static final String[] REASONS_END = {"trackdone", "fwdbtn", "endplay", "backbtn", "logout", "unexpected-exit"};
+    private static final long START_EPOCH_SECOND = 1_420_070_400L; // 2015-01-01
+
+    private SyntheticHistory() {
+    }
+
+    public static void writeCsv(Path file, int plays, int distinctTracks, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        long epochSecond = START_EPOCH_SECOND;
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (int i = 0; i < plays; i++) {
+                epochSecond += 30 + random.nextInt(600);
+                int track = skewed(random, distinctTracks);
+                writer.write(row(epochSecond, track, random));
+                writer.write('\n');
+            }
+        }
+    }
+
+    public static Path tempCsv(int plays, int distinctTracks) throws IOException {
+        Path file = Files.createTempFile("synthetic-history-" + plays + "-", ".csv");
+        file.toFile().deleteOnExit();
+        writeCsv(file, plays, distinctTracks, 42L);
+        return file;
+    }
+
+    // Distinct tracks for a history of this many plays: heavy listeners repeat more, so the catalogue grows
+    // slower than the plays, from 1,000 tracks for small exports to 500,000 for ten million plays
+    public static int distinctTracks(int plays) {
+        return Math.max(1000, Math.min(500_000, plays / 20));
+    }
+
+    private static String row(long epochSecond, int track, SplittableRandom random) {
+        int artist = track / 12;
+        int album = track / 4;
+        // Every 50th track title needs quoting, so the slow path is part of the measurement
+        String trackName = track % 50 == 0 ? "\"Track " + track + ", Pt. \"\"" + (track % 7) + "\"\"\"" : "Track " + track;
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC).format(TIMESTAMP_FORMAT)
+                + ",android," + (1000 + random.nextInt(360_000)) + ",US,10.0.0.1,"
+                + trackName + ",Artist " + artist + ",Album " + album + " by Artist " + artist
+                + ",spotify:track:" + Integer.toString(track, 36) + "x" + track
+                + "," + REASONS_START[random.nextInt(REASONS_START.length)]
+                + "," + REASONS_END[random.nextInt(REASONS_END.length)]
+                + ",False,False,False";
+    }
+
+    // Squared uniform: a small head of tracks gets most plays, like a real listening history
+    private static int skewed(SplittableRandom random, int distinct) {
+        double u = random.nextDouble();
+        return (int) (u * u * distinct);
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Full sort versus bounded heaps for picking the top tracks out of many distinct groups
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopKBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int distinctKeys;
+
+    @Param({"25"})
+    public int k;
+
+    private TopKWorkload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workloads.load(TopKWorkload.class, "TopKWorkloads");
+        workload.prepare(distinctKeys, k);
+    }
+
+    @Benchmark
+    public Object sortAll() {
+        return workload.sortAll();
+    }
+
+    @Benchmark
+    public Object heapCollector() {
+        return workload.heapCollector();
+    }
+
+    @Benchmark
+    public Object primitiveHeap() {
+        return workload.primitiveHeap();
+    }
+}
@@ -0,0 +1,15 @@
+package benchmarks;
+
+public interface TopKWorkload {
+    // Builds distinctKeys groups with skewed totals, like a per-track minutes map
+    void prepare(int distinctKeys, int k);
+
+    // Current approach: sort every group, keep the first k
+    Object sortAll();
+
+    // Bounded heap over Map.Entry groups
+    Object heapCollector();
+
+    // Bounded heap over primitive long totals
+    Object primitiveHeap();
+}
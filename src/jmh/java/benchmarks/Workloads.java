@@ -0,0 +1,17 @@
+package benchmarks;
+
+// The application lives in the unnamed package, which named packages cannot import, and JMH only accepts
+// benchmarks in a named package. Each benchmark talks to the application through a small interface whose
+// implementation sits in the unnamed package next to it and is instantiated here once per trial.
+public final class Workloads {
+    private Workloads() {
+    }
+
+    public static <T> T load(Class<T> type, String implementationClass) {
+        try {
+            return type.cast(Class.forName(implementationClass).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create benchmark workload " + implementationClass, e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.model_objects.credentials.ClientCredentials;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Client credentials token for the Web API. Fetched in the background, so nothing waits for the auth
+// endpoint at startup, and refreshed ahead of its expiry. Callers that need a token while none is valid
+// share the single refresh in progress.
+public class AccessTokenManager {
+    private static final Logger LOG = LoggerFactory.getLogger(AccessTokenManager.class);
+
+    // Refresh this long before the token expires
+    private static final long REFRESH_MARGIN_MILLIS = 5 * 60 * 1000;
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60 * 1000;
+    private static final long TOKEN_WAIT_MILLIS = 10 * 1000;
+
+    private record Token(String value, long expiresAtMillis) {
+    }
+
+    private final SpotifyApi spotifyApi;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "spotify-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by "this"
+    private Token token;
+    private CompletableFuture<Token> refreshing;
+    private long retryMillis = MIN_RETRY_MILLIS;
+    private boolean retryScheduled;
+
+    public AccessTokenManager(SpotifyApi spotifyApi) {
+        this.spotifyApi = spotifyApi;
+    }
+
+    // A fixed token that is never refreshed, e.g. for a local stub of the API
+    public static AccessTokenManager fixed(SpotifyApi spotifyApi, String accessToken) {
+        AccessTokenManager manager = new AccessTokenManager(spotifyApi);
+        manager.token = new Token(accessToken, Long.MAX_VALUE);
+        manager.spotifyApi.setAccessToken(accessToken);
+        return manager;
+    }
+
+    // Starts fetching the first token without waiting for it
+    public void start() {
+        refresh();
+    }
+
+    // A valid token, set on the SpotifyApi as well. Waits for the refresh in progress if there is none.
+    public String accessToken() throws IOException {
+        CompletableFuture<Token> pending;
+        synchronized (this) {
+            if (token != null && token.expiresAtMillis() > System.currentTimeMillis()) {
+                return token.value();
+            }
+            pending = refresh();
+        }
+        try {
+            return pending.get(TOKEN_WAIT_MILLIS, TimeUnit.MILLISECONDS).value();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an access token", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error getting access token: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for an access token", e);
+        }
+    }
+
+    // Called on a 401: drops the rejected token unless it was already replaced
+    public synchronized void invalidate(String rejectedToken) {
+        if (token != null && token.value().equals(rejectedToken) && token.expiresAtMillis() != Long.MAX_VALUE) {
+            token = null;
+            refresh();
+        }
+    }
+
+    private synchronized CompletableFuture<Token> refresh() {
+        if (refreshing == null) {
+            CompletableFuture<Token> future = new CompletableFuture<>();
+            refreshing = future;
+            scheduler.execute(() -> fetch(future));
+        }
+        return refreshing;
+    }
+
+    private void retry() {
+        synchronized (this) {
+            retryScheduled = false;
+        }
+        refresh();
+    }
+
+    private void fetch(CompletableFuture<Token> future) {
+        try {
+            ClientCredentials credentials = spotifyApi.clientCredentials().build().execute();
+            long expiresInMillis = credentials.getExpiresIn() * 1000L;
+            Token fetched = new Token(credentials.getAccessToken(), System.currentTimeMillis() + expiresInMillis);
+            synchronized (this) {
+                token = fetched;
+                refreshing = null;
+                retryMillis = MIN_RETRY_MILLIS;
+                spotifyApi.setAccessToken(fetched.value());
+            }
+            scheduler.schedule(this::refresh, Math.max(expiresInMillis - REFRESH_MARGIN_MILLIS, expiresInMillis / 2),
+                    TimeUnit.MILLISECONDS);
+            future.complete(fetched);
+        } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+            synchronized (this) {
+                refreshing = null;
+                // One retry chain, however many callers saw the failure
+                if (!retryScheduled) {
+                    retryScheduled = true;
+                    Metrics.ERRORS.labels("access-token").inc();
+                    LOG.warn("Error getting access token, retrying in {} ms: {}", retryMillis, e.getMessage());
+                    scheduler.schedule(this::retry, retryMillis, TimeUnit.MILLISECONDS);
+                    retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                }
+            }
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -1,5 +1,69 @@
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+// Results are sent as JSON. Analyses that wait on the Spotify API return a CompletableFuture of their
+// result instead, so no analysis thread sits idle during the lookups.
 public interface Analysis {
     Object analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api);
-}
\ No newline at end of file
+
+    // Columnar variant, analyses override it to scan the primitive columns instead of decoding rows
+    default Object analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        return analyze(dataset.asEntries(), api);
+    }
+
+    // Any result as a future, completed already unless the analysis returned one
+    static CompletableFuture<Object> asFuture(Object result) {
+        if (result instanceof CompletableFuture<?> future) {
+            return future.thenApply(value -> value);
+        }
+        return CompletableFuture.completedFuture(result);
+    }
+
+    // Per-row form of an analysis, so several analyses can share one scan over a dataset (see DashboardAnalysis)
+    interface Accumulator {
+        // False when the result does not depend on visiting the rows, e.g. it is read from the rollups
+        default boolean needsRows() {
+            return true;
+        }
+
+        void accept(StreamingHistoryDataset dataset, int row);
+
+        Object finish();
+
+        // True when the rows can be split across forks merged back afterwards, so a large dataset can be
+        // scanned in parallel (see ParallelScan); false when this one has to see every row itself. An
+        // accumulator returning true implements both fork and merge.
+        default boolean canFork() {
+            return false;
+        }
+
+        // A new, empty accumulator for another partition of the rows; only called when canFork()
+        default Accumulator fork() {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be forked");
+        }
+
+        // Adds the rows a fork of this accumulator accepted; only called when canFork()
+        default void merge(Accumulator fork) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be forked");
+        }
+    }
+
+    // Analyses without a per-row form are computed as a whole in finish()
+    default Accumulator accumulator(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        return new Accumulator() {
+            @Override
+            public boolean needsRows() {
+                return false;
+            }
+
+            @Override
+            public void accept(StreamingHistoryDataset dataset, int row) {
+            }
+
+            @Override
+            public Object finish() {
+                return analyze(dataset, api);
+            }
+        };
+    }
+}
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+// Size-bounded LRU cache with idle expiry and single-flight loading.
+// Entries are weighed in (estimated) bytes and the least recently used ones are evicted once the budget is exceeded.
+public class BoundedCache<K, V> {
+
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    public record Stats(long hits, long misses, long evictions, long expirations,
+                        long loads, int entryCount, long weightedBytes, long maxBytes) {
+    }
+
+    private record Node<V>(V value, long weight, long lastAccessNanos) {
+    }
+
+    private final long maxBytes;
+    private final long idleTtlNanos;
+    private final ToLongFunction<V> weigher;
+
+    // Access-ordered, so iteration starts with the least recently used entry. Guarded by "this".
+    private final LinkedHashMap<K, Node<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weightedBytes;
+
+    // Loads in progress, so concurrent requests for the same key wait for one loader
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    public BoundedCache(long maxBytes, long idleTtlMillis, ToLongFunction<V> weigher) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.idleTtlNanos = idleTtlMillis <= 0 ? Long.MAX_VALUE : idleTtlMillis * 1_000_000L;
+        this.weigher = weigher;
+    }
+
+    public V getIfPresent(K key) {
+        V value = lookup(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    // Returns the cached value or loads it. Only one caller per key runs the loader, the others wait for its result.
+    public V get(K key, Loader<V> loader) throws IOException {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+
+        CompletableFuture<V> ownLoad = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, ownLoad);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+
+        try {
+            // Another loader may have finished between the miss and claiming the key
+            value = lookup(key);
+            if (value == null) {
+                value = loader.load();
+                loads.increment();
+                put(key, value);
+            }
+            ownLoad.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Errors too, e.g. OutOfMemoryError parsing a large upload, or the callers waiting on it hang
+            ownLoad.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, ownLoad);
+        }
+    }
+
+    public void put(K key, V value) {
+        long weight = Math.max(1, weigher.applyAsLong(value));
+        long now = System.nanoTime();
+        synchronized (this) {
+            Node<V> previous = entries.put(key, new Node<>(value, weight, now));
+            if (previous != null) {
+                weightedBytes -= previous.weight();
+            }
+            weightedBytes += weight;
+            evictExpired(now);
+            evictToBudget();
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        Node<V> removed = entries.remove(key);
+        if (removed != null) {
+            weightedBytes -= removed.weight();
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(),
+                loads.sum(), entries.size(), weightedBytes, maxBytes);
+    }
+
+    private synchronized V lookup(K key) {
+        Node<V> node = entries.get(key);
+        if (node == null) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (now - node.lastAccessNanos() > idleTtlNanos) {
+            entries.remove(key);
+            weightedBytes -= node.weight();
+            expirations.increment();
+            return null;
+        }
+
+        // Re-insert to refresh the idle timer, the access order already moved it to the tail
+        entries.put(key, new Node<>(node.value(), node.weight(), now));
+        return node.value();
+    }
+
+    // Expired entries sit at the head of the access order, so stop at the first live one
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<K, Node<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Node<V> node = it.next().getValue();
+            if (now - node.lastAccessNanos() <= idleTtlNanos) {
+                break;
+            }
+            it.remove();
+            weightedBytes -= node.weight();
+            expirations.increment();
+        }
+    }
+
+    private void evictToBudget() {
+        Iterator<Map.Entry<K, Node<V>>> it = entries.entrySet().iterator();
+        while (weightedBytes > maxBytes && it.hasNext()) {
+            Node<V> node = it.next().getValue();
+            it.remove();
+            weightedBytes -= node.weight();
+            evictions.increment();
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for cache load", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
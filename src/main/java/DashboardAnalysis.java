@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Runs several analyses and returns their results as one document, keyed by analysis name. Analyses that
+// need the rows share a single scan through their accumulators; the Top* analyses are answered from the
+// rollups and take no part in the scan.
+//
+// Year and month only apply to the Top* analyses and date only to played-songs; explore and
+// listening-habits always cover all plays. The document's "filters" entry lists the filters each result
+// was computed with, an empty map meaning all plays.
+public class DashboardAnalysis implements Analysis {
+    public static final List<String> ALL = List.of("top-songs", "top-artists", "top-albums", "explore");
+    public static final String FILTERS = "filters";
+
+    private final Map<String, Analysis> analyses = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> filters = new LinkedHashMap<>();
+
+    public DashboardAnalysis(List<String> names, Integer year, Integer month, String date) {
+        for (String name : names.isEmpty() ? ALL : names) {
+            analyses.put(name, create(name, year, month, date));
+            filters.put(name, effectiveFilters(name, year, month, date));
+        }
+    }
+
+    private static Map<String, Object> effectiveFilters(String name, Integer year, Integer month, String date) {
+        Map<String, Object> effective = new LinkedHashMap<>();
+        if (name.startsWith("top-")) {
+            if (year != null) {
+                effective.put("year", year);
+            }
+            if (month != null) {
+                effective.put("month", month);
+            }
+        } else if (name.equals("played-songs")) {
+            effective.put("date", date);
+        }
+        return effective;
+    }
+
+    private static Analysis create(String name, Integer year, Integer month, String date) {
+        return switch (name) {
+            case "top-songs" -> new TopSongsAnalysis(year, month);
+            case "top-artists" -> new TopArtistsAnalysis(year, month);
+            case "top-albums" -> new TopAlbumsAnalysis(year, month);
+            case "explore" -> new ExploreStatisticsAnalysis();
+            case "listening-habits" -> new ListeningHabitsAnalysis(null, null, null, null);
+            case "played-songs" -> {
+                if (date == null) {
+                    throw new IllegalArgumentException("played-songs needs a date");
+                }
+                yield new PlayedSongsByDayAnalysis(date);
+            }
+            default -> throw new IllegalArgumentException("Unknown analysis: " + name);
+        };
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        for (StreamingHistoryEntry entry : entries) {
+            builder.add(entry);
+        }
+        return analyze(builder.build(), api);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        Map<String, Accumulator> accumulators = new LinkedHashMap<>();
+        List<Accumulator> scanning = new ArrayList<>();
+        for (Map.Entry<String, Analysis> analysis : analyses.entrySet()) {
+            Accumulator accumulator = analysis.getValue().accumulator(dataset, api);
+            accumulators.put(analysis.getKey(), accumulator);
+            if (accumulator.needsRows()) {
+                scanning.add(accumulator);
+            }
+        }
+
+        // One pass over the rows for everything that needs them, partitioned across the scan pool when large
+        if (!scanning.isEmpty()) {
+            ParallelScan.accept(dataset, scanning);
+        }
+
+        // Top artists and albums still wait on their Spotify lookups, which run concurrently
+        Map<String, CompletableFuture<Object>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, Accumulator> accumulator : accumulators.entrySet()) {
+            pending.put(accumulator.getKey(), Analysis.asFuture(accumulator.getValue().finish()));
+        }
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<String, Object> results = new LinkedHashMap<>();
+            for (Map.Entry<String, CompletableFuture<Object>> result : pending.entrySet()) {
+                results.put(result.getKey(), result.getValue().join());
+            }
+            results.put(FILTERS, filters);
+            return results;
+        });
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binary snapshot of a parsed dataset, reopened by mapping the file instead of parsing the CSV again.
+// Layout, little-endian:
+//
+//   header    int magic "SPHS", int version, int rows, int albumArtistCount, int sectionCount,
+//             int dataset version (see StreamingHistoryDataset.append)
+//   sections  sectionCount x (long offset, long length)
+//   data      each section 8-byte aligned: the row columns and album/artist pair tables as fixed-width
+//             values, then one dictionary per string column as (int count, int offsets[count + 1], UTF-8 bytes)
+//
+// A file with another magic or version is rejected, so the dataset is parsed from its upload again.
+public final class DatasetSnapshot {
+    private static final int MAGIC = 0x53485053; // "SPHS" read little-endian
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 24;
+
+    // Section order in the file
+    private static final int EPOCH_SECONDS = 0;
+    private static final int MS_PLAYED = 1;
+    private static final int TRACK_NAME_CODES = 2;
+    private static final int ARTIST_NAME_CODES = 3;
+    private static final int ALBUM_NAME_CODES = 4;
+    private static final int TRACK_URI_CODES = 5;
+    private static final int REASON_START_CODES = 6;
+    private static final int REASON_END_CODES = 7;
+    private static final int ALBUM_ARTIST_CODES = 8;
+    private static final int ALBUM_ARTIST_ALBUM_CODES = 9;
+    private static final int ALBUM_ARTIST_ARTIST_CODES = 10;
+    private static final int TRACK_NAMES = 11;
+    private static final int ARTIST_NAMES = 12;
+    private static final int ALBUM_NAMES = 13;
+    private static final int TRACK_URIS = 14;
+    private static final int REASONS = 15;
+    private static final int SECTION_COUNT = 16;
+
+    private DatasetSnapshot() {
+    }
+
+    // Writes to a temporary file next to the target and moves it into place, so readers never see a partial file
+    public static void write(StreamingHistoryDataset dataset, Path file) throws IOException {
+        int rows = dataset.size();
+        int pairs = dataset.albumArtistCount();
+        StringDictionary[] dictionaries = {
+                dataset.trackNames(), dataset.artistNames(), dataset.albumNames(), dataset.trackUris(), dataset.reasons()
+        };
+        byte[][][] dictionaryBytes = new byte[dictionaries.length][][];
+
+        long[] lengths = new long[SECTION_COUNT];
+        lengths[EPOCH_SECONDS] = 8L * rows;
+        for (int section = MS_PLAYED; section <= ALBUM_ARTIST_CODES; section++) {
+            lengths[section] = 4L * rows;
+        }
+        lengths[ALBUM_ARTIST_ALBUM_CODES] = 4L * pairs;
+        lengths[ALBUM_ARTIST_ARTIST_CODES] = 4L * pairs;
+        for (int d = 0; d < dictionaries.length; d++) {
+            int count = dictionaries[d].size();
+            byte[][] values = new byte[count][];
+            long length = 4L + 4L * (count + 1);
+            for (int code = 0; code < count; code++) {
+                values[code] = dictionaries[d].encodedBytes(code);
+                length += values[code].length;
+            }
+            dictionaryBytes[d] = values;
+            lengths[TRACK_NAMES + d] = length;
+        }
+
+        long[] offsets = new long[SECTION_COUNT];
+        long position = align(HEADER_BYTES + 16L * SECTION_COUNT);
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            offsets[section] = position;
+            position = align(position + lengths[section]);
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                List<MappedByteBuffer> written = new ArrayList<>();
+                ByteBuffer header = map(channel, written, 0, offsets[0]);
+                header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(pairs).putInt(SECTION_COUNT)
+                        .putInt(dataset.version());
+                for (int section = 0; section < SECTION_COUNT; section++) {
+                    header.putLong(offsets[section]).putLong(lengths[section]);
+                }
+
+                LongBuffer epochSeconds = map(channel, written, offsets, lengths, EPOCH_SECONDS).asLongBuffer();
+                IntBuffer msPlayed = map(channel, written, offsets, lengths, MS_PLAYED).asIntBuffer();
+                IntBuffer trackNameCodes = map(channel, written, offsets, lengths, TRACK_NAME_CODES).asIntBuffer();
+                IntBuffer artistNameCodes = map(channel, written, offsets, lengths, ARTIST_NAME_CODES).asIntBuffer();
+                IntBuffer albumNameCodes = map(channel, written, offsets, lengths, ALBUM_NAME_CODES).asIntBuffer();
+                IntBuffer trackUriCodes = map(channel, written, offsets, lengths, TRACK_URI_CODES).asIntBuffer();
+                IntBuffer reasonStartCodes = map(channel, written, offsets, lengths, REASON_START_CODES).asIntBuffer();
+                IntBuffer reasonEndCodes = map(channel, written, offsets, lengths, REASON_END_CODES).asIntBuffer();
+                IntBuffer albumArtistCodes = map(channel, written, offsets, lengths, ALBUM_ARTIST_CODES).asIntBuffer();
+                for (int row = 0; row < rows; row++) {
+                    epochSeconds.put(dataset.epochSecond(row));
+                    msPlayed.put(dataset.msPlayed(row));
+                    trackNameCodes.put(dataset.trackNameCode(row));
+                    artistNameCodes.put(dataset.artistNameCode(row));
+                    albumNameCodes.put(dataset.albumNameCode(row));
+                    trackUriCodes.put(dataset.trackUriCode(row));
+                    reasonStartCodes.put(dataset.reasonStartCode(row));
+                    reasonEndCodes.put(dataset.reasonEndCode(row));
+                    albumArtistCodes.put(dataset.albumArtistCode(row));
+                }
+
+                IntBuffer albumCodes = map(channel, written, offsets, lengths, ALBUM_ARTIST_ALBUM_CODES).asIntBuffer();
+                IntBuffer artistCodes = map(channel, written, offsets, lengths, ALBUM_ARTIST_ARTIST_CODES).asIntBuffer();
+                for (int pair = 0; pair < pairs; pair++) {
+                    albumCodes.put(dataset.albumArtistAlbumCode(pair));
+                    artistCodes.put(dataset.albumArtistArtistCode(pair));
+                }
+
+                for (int d = 0; d < dictionaries.length; d++) {
+                    byte[][] values = dictionaryBytes[d];
+                    ByteBuffer section = map(channel, written, offsets, lengths, TRACK_NAMES + d);
+                    section.putInt(values.length);
+                    int offset = 0;
+                    for (byte[] value : values) {
+                        section.putInt(offset);
+                        offset += value.length;
+                    }
+                    section.putInt(offset);
+                    for (byte[] value : values) {
+                        section.put(value);
+                    }
+                }
+                for (MappedByteBuffer buffer : written) {
+                    buffer.force();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Maps the file read-only. Columns stay in the page cache, only dictionary values that are decoded and
+    // the rollups (built on first use) take heap.
+    public static StreamingHistoryDataset open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                throw new IOException("Not a dataset snapshot: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            int version = header.getInt();
+            int rows = header.getInt();
+            int pairs = header.getInt();
+            int sectionCount = header.getInt();
+            int datasetVersion = header.getInt();
+            if (magic != MAGIC || version != VERSION || sectionCount != SECTION_COUNT) {
+                throw new IOException("Unsupported dataset snapshot (version " + version + "): " + file);
+            }
+
+            long tableBytes = 16L * SECTION_COUNT;
+            if (fileSize < HEADER_BYTES + tableBytes) {
+                throw new IOException("Truncated dataset snapshot: " + file);
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, tableBytes).order(ByteOrder.LITTLE_ENDIAN);
+            long[] offsets = new long[SECTION_COUNT];
+            long[] lengths = new long[SECTION_COUNT];
+            for (int section = 0; section < SECTION_COUNT; section++) {
+                offsets[section] = table.getLong();
+                lengths[section] = table.getLong();
+                if (offsets[section] < 0 || lengths[section] < 0 || offsets[section] + lengths[section] > fileSize) {
+                    throw new IOException("Truncated dataset snapshot: " + file);
+                }
+            }
+            if (lengths[EPOCH_SECONDS] != 8L * rows || lengths[ALBUM_ARTIST_ALBUM_CODES] != 4L * pairs || datasetVersion < 1) {
+                throw new IOException("Corrupt dataset snapshot: " + file);
+            }
+
+            return new StreamingHistoryDataset(rows, datasetVersion,
+                    readOnly(channel, offsets, lengths, EPOCH_SECONDS).asLongBuffer(),
+                    intColumn(channel, offsets, lengths, MS_PLAYED, rows),
+                    intColumn(channel, offsets, lengths, TRACK_NAME_CODES, rows),
+                    intColumn(channel, offsets, lengths, ARTIST_NAME_CODES, rows),
+                    intColumn(channel, offsets, lengths, ALBUM_NAME_CODES, rows),
+                    intColumn(channel, offsets, lengths, TRACK_URI_CODES, rows),
+                    intColumn(channel, offsets, lengths, REASON_START_CODES, rows),
+                    intColumn(channel, offsets, lengths, REASON_END_CODES, rows),
+                    intColumn(channel, offsets, lengths, ALBUM_ARTIST_CODES, rows),
+                    intColumn(channel, offsets, lengths, ALBUM_ARTIST_ALBUM_CODES, pairs),
+                    intColumn(channel, offsets, lengths, ALBUM_ARTIST_ARTIST_CODES, pairs),
+                    dictionary(channel, offsets, lengths, TRACK_NAMES),
+                    dictionary(channel, offsets, lengths, ARTIST_NAMES),
+                    dictionary(channel, offsets, lengths, ALBUM_NAMES),
+                    dictionary(channel, offsets, lengths, TRACK_URIS),
+                    dictionary(channel, offsets, lengths, REASONS));
+        }
+    }
+
+    private static IntBuffer intColumn(FileChannel channel, long[] offsets, long[] lengths, int section, int count)
+            throws IOException {
+        if (lengths[section] != 4L * count) {
+            throw new IOException("Corrupt dataset snapshot section " + section);
+        }
+        return readOnly(channel, offsets, lengths, section).asIntBuffer();
+    }
+
+    private static StringDictionary dictionary(FileChannel channel, long[] offsets, long[] lengths, int section)
+            throws IOException {
+        ByteBuffer buffer = readOnly(channel, offsets, lengths, section);
+        int count = buffer.getInt(0);
+        long bytesStart = 4L + 4L * (count + 1);
+        if (count < 0 || bytesStart > lengths[section]) {
+            throw new IOException("Corrupt dataset snapshot section " + section);
+        }
+        IntBuffer valueOffsets = buffer.slice(4, 4 * (count + 1)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        ByteBuffer bytes = buffer.slice((int) bytesStart, (int) (lengths[section] - bytesStart));
+        if (valueOffsets.get(count) != bytes.capacity()) {
+            throw new IOException("Corrupt dataset snapshot section " + section);
+        }
+        return StringDictionary.mapped(count, valueOffsets, bytes);
+    }
+
+    private static ByteBuffer readOnly(FileChannel channel, long[] offsets, long[] lengths, int section) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offsets[section], lengths[section]).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer map(FileChannel channel, List<MappedByteBuffer> written,
+                                  long[] offsets, long[] lengths, int section) throws IOException {
+        return map(channel, written, offsets[section], lengths[section]);
+    }
+
+    // Grows the file to cover the region; the buffer is kept so it can be forced to disk before the move
+    private static ByteBuffer map(FileChannel channel, List<MappedByteBuffer> written, long offset, long length)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+        written.add(buffer);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+}
@@ -0,0 +1,87 @@
+// Allocation-free calendar fields for UTC epoch seconds, used by the columnar scans instead of LocalDateTime
+public final class EpochTime {
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    private EpochTime() {
+    }
+
+    public static long epochDay(long epochSecond) {
+        return Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+    }
+
+    // Inverse of yearMonth: days-from-civil for UTC date and time fields
+    public static long toEpochSecond(int year, int month, int day, int hour, int minute, int second) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = era * 146_097 + dayOfEra - 719_468;
+        return epochDay * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second;
+    }
+
+    // yyyy-MM-ddTHH:mm:ssZ, the timestamp layout of every Spotify export. Returns Long.MIN_VALUE for anything else.
+    public static long parseUtcTimestamp(CharSequence text) {
+        if (text.length() != 20
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':' || text.charAt(19) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        return toEpochSecond(year, month, day, hour, minute, second);
+    }
+
+    public static int daysInMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    public static int hourOfDay(long epochSecond) {
+        return (int) (Math.floorMod(epochSecond, SECONDS_PER_DAY) / 3600);
+    }
+
+    public static int year(long epochSecond) {
+        return (int) (yearMonth(epochSecond) >> 4);
+    }
+
+    public static int month(long epochSecond) {
+        return (int) (yearMonth(epochSecond) & 0xF);
+    }
+
+    // Year in the high bits, month (1-12) in the low four bits. Civil-from-days, proleptic Gregorian.
+    public static long yearMonth(long epochSecond) {
+        long z = epochDay(epochSecond) + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (year << 4) | month;
+    }
+}
@@ -3,10 +3,28 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 
+// Listening time, plays and distinct songs, albums and artists. In approximate mode the distinct counts of a
+// list of entries come from HyperLogLog sketches, 16 KB per field instead of a hash set of every value, within
+// about 1% (the "distinct-error" entry gives the standard error). A dataset's dictionaries already hold each
+// distinct value once, so its counts are exact in either mode and its "distinct-error" is 0.
 public class ExploreStatisticsAnalysis implements Analysis {
+    private final boolean approximate;
+
+    public ExploreStatisticsAnalysis() {
+        this(false);
+    }
+
+    public ExploreStatisticsAnalysis(boolean approximate) {
+        this.approximate = approximate;
+    }
+
     @Override
     public Map<String, String> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
+        if (approximate) {
+            return approximate(entries);
+        }
         Map<String, String> statistics = new HashMap<>();
 
         // Minutes played
@@ -43,8 +61,102 @@ public class ExploreStatisticsAnalysis implements Analysis {
         statistics.put("plays", numberFormat.format(playCount));
         statistics.put("unique-songs", numberFormat.format(uniqueSongsCount));
 
-        System.out.println(statistics);
+        return statistics;
+    }
+
+    private static Map<String, String> approximate(List<StreamingHistoryEntry> entries) {
+        HyperLogLog songs = new HyperLogLog();
+        HyperLogLog albums = new HyperLogLog();
+        HyperLogLog artists = new HyperLogLog();
+        long minutesPlayed = 0;
+        for (StreamingHistoryEntry entry : entries) {
+            minutesPlayed += entry.minutesPlayed();
+            songs.add(Objects.toString(entry.spotifyTrackUri(), ""));
+            albums.add(Objects.toString(entry.albumName(), ""));
+            artists.add(Objects.toString(entry.artistName(), ""));
+        }
+        return statistics(minutesPlayed, entries.size(), songs, albums, artists);
+    }
 
+    private static Map<String, String> statistics(long minutesPlayed, int playCount, HyperLogLog songs,
+                                                  HyperLogLog albums, HyperLogLog artists) {
+        NumberFormat numberFormat = NumberFormat.getInstance(Locale.getDefault());
+        Map<String, String> statistics = new HashMap<>();
+        statistics.put("listening", String.format("%,d", (int) minutesPlayed / 60 / 24));
+        statistics.put("albums", String.format("%,d", albums.estimate()));
+        statistics.put("artists", numberFormat.format(artists.estimate()));
+        statistics.put("plays", numberFormat.format(playCount));
+        statistics.put("unique-songs", numberFormat.format(songs.estimate()));
+        statistics.put("distinct-error", String.format(Locale.ROOT, "%.2f%%", songs.relativeError() * 100));
         return statistics;
     }
-}
\ No newline at end of file
+
+    @Override
+    public Map<String, String> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        StatisticsAccumulator accumulator = accumulator(dataset, api);
+        ParallelScan.accept(dataset, List.of(accumulator));
+        return accumulator.finish();
+    }
+
+    @Override
+    public StatisticsAccumulator accumulator(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        return new StatisticsAccumulator(dataset, approximate);
+    }
+
+    static final class StatisticsAccumulator implements Accumulator {
+        private final StreamingHistoryDataset dataset;
+        private final boolean approximate;
+        private long minutesPlayed;
+
+        private StatisticsAccumulator(StreamingHistoryDataset dataset, boolean approximate) {
+            this.dataset = dataset;
+            this.approximate = approximate;
+        }
+
+        @Override
+        public void accept(StreamingHistoryDataset dataset, int row) {
+            minutesPlayed += dataset.minutesPlayed(row);
+        }
+
+        @Override
+        public boolean canFork() {
+            return true;
+        }
+
+        @Override
+        public StatisticsAccumulator fork() {
+            return new StatisticsAccumulator(dataset, approximate);
+        }
+
+        @Override
+        public void merge(Accumulator fork) {
+            minutesPlayed += ((StatisticsAccumulator) fork).minutesPlayed;
+        }
+
+        @Override
+        public Map<String, String> finish() {
+            Map<String, String> statistics = new HashMap<>();
+
+            int listeningTimeinDays = (int) minutesPlayed / 60 / 24;
+
+            // Dictionaries only hold values present in the rows, so their sizes are the distinct counts
+            int playCount = dataset.size();
+            int uniqueSongsCount = dataset.trackUris().size();
+            long distinctAlbums = dataset.albumNames().size();
+            long distinctArtist = dataset.artistNames().size();
+
+            NumberFormat numberFormat = NumberFormat.getInstance(Locale.getDefault());
+
+            statistics.put("listening", String.format("%,d", listeningTimeinDays));
+            statistics.put("albums", String.format("%,d", distinctAlbums));
+            statistics.put("artists", numberFormat.format(distinctArtist));
+            statistics.put("plays", numberFormat.format(playCount));
+            statistics.put("unique-songs", numberFormat.format(uniqueSongsCount));
+            if (approximate) {
+                statistics.put("distinct-error", String.format(Locale.ROOT, "%.2f%%", 0.0));
+            }
+
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Second cache tier shared by every node behind the load balancer, below each node's in-memory caches and
+// local snapshots. It holds parsed datasets as snapshot files (DatasetSnapshot's binary format) under their
+// content key and serialized analysis results under their ResponseCache key, so a request landing on
+// another node maps the dataset or replays the result instead of parsing the upload again.
+//
+// Implementations publish values atomically, a reader sees a complete value or none, and hand out locks
+// that at most one node holds per key, used so that only one node parses a given upload.
+public interface ExternalCacheTier {
+    // How often a node waiting for another one's lock checks again
+    long POLL_MILLIS = 200;
+
+    // Recorded by the callers, which know what kind of entry they looked up
+    Metrics.Family<Metrics.Counter> LOOKUPS = Metrics.counter(
+            "spotify_tier_lookups_total", "Lookups in the shared cache tier", "entry", "result");
+
+    // Small values: results, dataset versions. Null when there is no entry.
+    byte[] get(String key) throws IOException;
+
+    void put(String key, byte[] value) throws IOException;
+
+    // Large values, copied to or from a local file; false when there is no entry
+    boolean download(String key, Path target) throws IOException;
+
+    void upload(String key, Path source) throws IOException;
+
+    // The lock for key, or null while another node holds it. The lock stays held while its node is alive,
+    // however long the work under it takes; one its node stopped renewing, e.g. because it crashed, counts
+    // as abandoned after the implementation's expiry and can be taken over.
+    Lock tryLock(String key) throws IOException;
+
+    interface Lock extends AutoCloseable {
+        @Override
+        void close() throws IOException;
+    }
+
+    // Waits up to maxWaitMillis for the lock
+    default Lock lock(String key, long maxWaitMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        while (true) {
+            Lock lock = tryLock(key);
+            if (lock != null) {
+                return lock;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Timed out waiting for lock " + key);
+            }
+            sleep();
+        }
+    }
+
+    // Single flight across nodes: the value from fetch if the tier has it, otherwise one node runs populate
+    // (which publishes the value) while the others keep trying fetch. A node that waited maxWaitMillis runs
+    // populate itself rather than fail the request.
+    default <V> V fetchOrPopulate(String key, BoundedCache.Loader<V> fetch, BoundedCache.Loader<V> populate,
+                                  long maxWaitMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        V value = fetch.load();
+        while (value == null) {
+            Lock lock = tryLock(key);
+            if (lock != null) {
+                try (lock) {
+                    // Published between the last fetch and taking the lock
+                    value = fetch.load();
+                    return value != null ? value : populate.load();
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                return populate.load();
+            }
+            sleep();
+            value = fetch.load();
+        }
+        return value;
+    }
+
+    private static void sleep() throws IOException {
+        try {
+            Thread.sleep(POLL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for another node", e);
+        }
+    }
+}
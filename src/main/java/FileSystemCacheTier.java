@@ -0,0 +1,264 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// ExternalCacheTier in a directory, local or a mount every node shares (NFS, EFS). Keys are hashed into
+// file names under entries/; values are written to a temporary file and renamed into place, so readers
+// never see a partial value. A lock is a file under locks/ created exclusively, holding a token so only its
+// owner removes it. Its owner touches it every third of lockTtlMillis until it is closed, so a parse or
+// append that outlasts the expiry keeps its lock; one not touched for lockTtlMillis was abandoned by a node
+// that died or hung, and can be removed by any node.
+// Entries are never removed here, old ones can be pruned by age from outside (their modification time is
+// when they were stored).
+public class FileSystemCacheTier implements ExternalCacheTier {
+    private static final Logger LOG = LoggerFactory.getLogger(FileSystemCacheTier.class);
+
+    private static final int GUARD_ATTEMPTS = 100;
+    private static final long GUARD_RETRY_MILLIS = 5;
+
+    // Renews the locks held by this process, one short file operation per lock and period
+    private static final ScheduledExecutorService RENEWALS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tier-lock-renewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path entries;
+    private final Path locks;
+    private final long lockTtlMillis;
+
+    public FileSystemCacheTier(Path root, long lockTtlMillis) throws IOException {
+        this.entries = Files.createDirectories(root.resolve("entries"));
+        this.locks = Files.createDirectories(root.resolve("locks"));
+        this.lockTtlMillis = lockTtlMillis;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(entry(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        Path temp = Files.createTempFile(entries, null, ".tmp");
+        try {
+            Files.write(temp, value);
+            Files.move(temp, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public boolean download(String key, Path target) throws IOException {
+        Path directory = Files.createDirectories(target.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(entry(key), temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void upload(String key, Path source) throws IOException {
+        Path temp = Files.createTempFile(entries, null, ".tmp");
+        try {
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public Lock tryLock(String key) throws IOException {
+        Path file = locks.resolve(fileName(key) + ".lock");
+        byte[] token = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                Files.write(Files.createFile(file), token);
+                return new HeldLock(file, token);
+            } catch (FileAlreadyExistsException e) {
+                if (!takeOver(file)) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Removes an abandoned lock, true when creating it again can be tried
+    private boolean takeOver(Path lock) throws IOException {
+        byte[] abandoned;
+        try {
+            // Token before age: a lock taken in between is new, and not taken over
+            abandoned = Files.readAllBytes(lock);
+            FileTime modified = Files.getLastModifiedTime(lock);
+            if (!expired(modified)) {
+                return false;
+            }
+        } catch (NoSuchFileException e) {
+            // Released in the meantime
+            return true;
+        }
+        return remove(lock, abandoned, true);
+    }
+
+    // Deletes the lock if it still holds the token, and when onlyExpired if it was not renewed since, true
+    // when it is gone. Every removal and renewal holds the lock's guard file, created exclusively like the
+    // lock itself, so no other node deletes, replaces or renews the lock between the comparison and the
+    // deletion: nodes taking over the same abandoned lock at once, or its owner releasing it late, cannot
+    // delete a lock another node took in the meantime, and a lock renewed just now is not taken over.
+    private boolean remove(Path lock, byte[] token, boolean onlyExpired) throws IOException {
+        Path guard = guardOf(lock);
+        if (!guard(guard)) {
+            return false;
+        }
+        try {
+            if (!MessageDigest.isEqual(Files.readAllBytes(lock), token)
+                    || onlyExpired && !expired(Files.getLastModifiedTime(lock))) {
+                return false;
+            }
+            Files.delete(lock);
+            return true;
+        } catch (NoSuchFileException e) {
+            return true;
+        } finally {
+            Files.deleteIfExists(guard);
+        }
+    }
+
+    // Touches the lock if it still holds the token, false once another node took it over or it is gone.
+    // True as well when the guard is busy, the lock is then renewed in the next period.
+    private boolean renew(Path lock, byte[] token) throws IOException {
+        Path guard = guardOf(lock);
+        if (!guard(guard)) {
+            return true;
+        }
+        try {
+            if (!MessageDigest.isEqual(Files.readAllBytes(lock), token)) {
+                return false;
+            }
+            Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(guard);
+        }
+    }
+
+    private boolean expired(FileTime modified) {
+        return System.currentTimeMillis() - modified.toMillis() > lockTtlMillis;
+    }
+
+    private static Path guardOf(Path lock) {
+        return lock.resolveSibling(lock.getFileName() + ".guard");
+    }
+
+    // A guard is only held for a read and a delete, so this waits briefly; one left behind by a node that
+    // died holding it is removed once it is as old as an abandoned lock
+    private boolean guard(Path guard) throws IOException {
+        for (int attempt = 0; attempt < GUARD_ATTEMPTS; attempt++) {
+            try {
+                Files.createFile(guard);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                try {
+                    if (System.currentTimeMillis() - Files.getLastModifiedTime(guard).toMillis() > lockTtlMillis) {
+                        Files.deleteIfExists(guard);
+                        continue;
+                    }
+                } catch (NoSuchFileException ignored) {
+                    continue;
+                }
+            }
+            try {
+                Thread.sleep(GUARD_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for lock guard " + guard, e);
+            }
+        }
+        return false;
+    }
+
+    // A lock this process holds, renewed until it is closed. After expiry another node may own the file,
+    // which is then left alone.
+    private final class HeldLock implements Lock, Runnable {
+        private final Path file;
+        private final byte[] token;
+        private final ScheduledFuture<?> renewal;
+        private volatile boolean lost;
+
+        private HeldLock(Path file, byte[] token) {
+            this.file = file;
+            this.token = token;
+            long period = Math.max(1, lockTtlMillis / 3);
+            this.renewal = RENEWALS.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (lost) {
+                return;
+            }
+            try {
+                if (!renew(file, token)) {
+                    lost = true;
+                    Metrics.ERRORS.labels("tier-lock-lost").inc();
+                    LOG.warn("Lost lock {} of the shared tier to another node", file.getFileName());
+                }
+            } catch (IOException e) {
+                // Tried again next period, the lock only expires after three missed renewals
+                Metrics.ERRORS.labels("tier-lock-renew").inc();
+                LOG.warn("Error renewing lock {} of the shared tier: {}", file.getFileName(), e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            renewal.cancel(false);
+            remove(file, token, false);
+        }
+    }
+
+    private Path entry(String key) {
+        return entries.resolve(fileName(key));
+    }
+
+    // Keys hold characters that are not valid in file names, e.g. the query part of a result key
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
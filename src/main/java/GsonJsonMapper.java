@@ -0,0 +1,105 @@
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import io.javalin.json.JsonMapper;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+// Javalin's JsonMapper on Gson, including the streaming variants: values are written through a JsonWriter
+// into the output as UTF-8, so no response is first built as one String and then copied into bytes.
+public class GsonJsonMapper implements JsonMapper {
+    private static final Logger LOG = LoggerFactory.getLogger(GsonJsonMapper.class);
+
+    private static final int PIPE_BYTES = 64 * 1024;
+
+    private final Gson gson;
+
+    public GsonJsonMapper(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public String toJsonString(@NotNull Object obj, @NotNull Type type) {
+        return gson.toJson(obj, type);
+    }
+
+    // Used by ctx.jsonStream(): serialized on a virtual thread into a pipe, which Javalin copies to the
+    // response while it fills
+    @NotNull
+    @Override
+    public InputStream toJsonStream(@NotNull Object obj, @NotNull Type type) {
+        PipedInputStream in = new PipedInputStream(PIPE_BYTES);
+        PipedOutputStream out;
+        try {
+            out = new PipedOutputStream(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Thread.startVirtualThread(() -> {
+            try (out) {
+                writeJson(obj, type, out);
+            } catch (IOException e) {
+                // The reader went away, e.g. the client disconnected
+                Metrics.ERRORS.labels("json-stream").inc();
+                LOG.warn("Error streaming JSON: {}", e.getMessage());
+            }
+        });
+        return in;
+    }
+
+    // Used by ctx.writeJsonStream(): the elements as one JSON array, each written as soon as it is produced
+    @Override
+    public void writeToOutputStream(@NotNull Stream<?> stream, @NotNull OutputStream outputStream) {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 8192);
+            JsonWriter json = gson.newJsonWriter(writer);
+            json.beginArray();
+            for (Iterator<?> elements = stream.iterator(); elements.hasNext(); ) {
+                Object element = elements.next();
+                if (element == null) {
+                    json.nullValue();
+                } else {
+                    gson.toJson(element, element.getClass(), json);
+                }
+            }
+            json.endArray();
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(@NotNull String json, @NotNull Type targetType) {
+        return gson.fromJson(json, targetType);
+    }
+
+    @Override
+    public <T> T fromJsonStream(@NotNull InputStream json, @NotNull Type targetType) {
+        return gson.fromJson(new InputStreamReader(json, StandardCharsets.UTF_8), targetType);
+    }
+
+    // Writes the value as UTF-8 JSON and flushes, without closing the stream. The BufferedWriter batches
+    // JsonWriter's many small writes before they reach the (synchronized, per call) encoder.
+    public void writeJson(Object value, Type type, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        JsonWriter json = gson.newJsonWriter(writer);
+        gson.toJson(value, type, json);
+        json.flush();
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Distinct-count sketch (Flajolet et al., with the linear-counting correction for small counts). Each value
+// is hashed to 64 bits; the top `precision` bits pick one of m = 2^precision registers, which keeps the
+// longest run of leading zeros seen in the remaining bits. Memory is m bytes whatever the number of values.
+//
+// Error bound: the relative standard error of estimate() is 1.04 / sqrt(m), 0.81% at the default precision
+// of 14 (16 KB); about 95% of estimates are within twice that. Just above the switch from linear counting
+// (2.5 m to 5 m values, 40k to 80k at precision 14) the estimator's bias adds up to half as much again.
+// Sketches of the same precision merge by taking the larger register, giving exactly the sketch of the
+// union, so merging adds no error of its own.
+public final class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 14;
+
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    // 64-bit hash of a value: FNV-1a over the chars, then the MurmurHash3 finalizer to spread the bits.
+    // Stable across JVMs, so sketches written by one process merge with those of another.
+    public static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(String value) {
+        addHash(hash(value));
+    }
+
+    // A value already hashed with hash(String), e.g. once per dictionary entry instead of once per row
+    public void addHash(long hash) {
+        int register = (int) (hash >>> (64 - precision));
+        // Leading zeros of the remaining bits plus one; the sentinel bit caps it at 64 - precision + 1
+        byte rank = (byte) (Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of precision " + precision + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        // Few values leave many registers empty, where counting the empty ones is more accurate
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // Relative standard error of estimate()
+    public double relativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    // Precision, then either all registers or, when few are set, (index, rank) pairs for the set ones
+    public void writeTo(DataOutput out) throws IOException {
+        int set = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                set++;
+            }
+        }
+        out.writeByte(precision);
+        // A sparse register takes 5 bytes, a dense one 1
+        if (set * 5 < registers.length) {
+            out.writeByte(SPARSE);
+            out.writeInt(set);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    out.writeInt(i);
+                    out.writeByte(registers[i]);
+                }
+            }
+        } else {
+            out.writeByte(DENSE);
+            out.write(registers);
+        }
+    }
+
+    public static HyperLogLog readFrom(DataInput in) throws IOException {
+        int precision = in.readByte();
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IOException("Corrupt sketch: precision " + precision);
+        }
+        HyperLogLog sketch = new HyperLogLog(precision);
+        byte encoding = in.readByte();
+        if (encoding == DENSE) {
+            in.readFully(sketch.registers);
+        } else if (encoding == SPARSE) {
+            int set = in.readInt();
+            for (int i = 0; i < set; i++) {
+                int register = in.readInt();
+                if (register < 0 || register >= sketch.registers.length) {
+                    throw new IOException("Corrupt sketch: register " + register);
+                }
+                sketch.registers[register] = in.readByte();
+            }
+        } else {
+            throw new IOException("Corrupt sketch: encoding " + encoding);
+        }
+        return sketch;
+    }
+}
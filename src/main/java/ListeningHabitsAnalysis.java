@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Listening sessions, skips and completion in one pass over the plays in time order. Sessions are split
+// where a play starts more than `gapMinutes` after the previous one ended, as in SessionsAroundAnalysis.
+// A play counts as skipped when it ended with the forward button or lasted less than `shortPlaySeconds`.
+// A play's completion is its duration relative to the longest play of the same track, which stands in for
+// the track length the export does not have. State is a few counters per track and per length bucket, so
+// memory follows the distinct tracks, not the plays, and time is linear in the plays.
+public class ListeningHabitsAnalysis implements Analysis {
+    public static final int DEFAULT_SHORT_PLAY_SECONDS = 30;
+    public static final int DEFAULT_MIN_PLAYS = 5;
+    public static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 100;
+
+    // Upper bounds of the session length buckets, in minutes; the last bucket is open
+    private static final int[] SESSION_BUCKET_MINUTES = {15, 30, 60, 120, 240};
+    // Skip and completion rates are ranked as fixed-point values
+    private static final long RATE_SCALE = 1_000_000;
+
+    private final long gapSeconds;
+    private final int shortPlayMs;
+    private final int minPlays;
+    private final int limit;
+
+    public record Sessions(int gapMinutes, long count, double meanMinutes, long longestMinutes, double meanPlays,
+                           Map<String, Long> lengthMinutes) {
+    }
+
+    public record Skips(int shortPlaySeconds, double skipRate, double forwardButtonRate, double shortPlayRate,
+                        List<TrackHabits> mostSkipped) {
+    }
+
+    // meanCompletion covers the plays with a track URI; episodes and local files only count towards trackDoneRate
+    public record Completion(double meanCompletion, double trackDoneRate, List<TrackHabits> leastCompleted) {
+    }
+
+    public record TrackHabits(String trackName, String artistName, String spotifyTrackUri, int plays,
+                              double skipRate, double completion) {
+    }
+
+    // Null parameters take the defaults; tracks with fewer than minPlays plays are not ranked
+    public ListeningHabitsAnalysis(Integer gapMinutes, Integer shortPlaySeconds, Integer minPlays, Integer limit) {
+        if (gapMinutes != null && gapMinutes < 0) {
+            throw new IllegalArgumentException("Gap must not be negative");
+        }
+        if (shortPlaySeconds != null && shortPlaySeconds < 0) {
+            throw new IllegalArgumentException("Short play threshold must not be negative");
+        }
+        if (minPlays != null && minPlays < 1) {
+            throw new IllegalArgumentException("Minimum plays must be at least 1");
+        }
+        if (limit != null && (limit < 0 || limit > MAX_LIMIT)) {
+            throw new IllegalArgumentException("Limit must be between 0 and " + MAX_LIMIT);
+        }
+        this.gapSeconds = (gapMinutes == null ? SessionsAroundAnalysis.DEFAULT_GAP_MINUTES : gapMinutes) * 60L;
+        this.shortPlayMs = (shortPlaySeconds == null ? DEFAULT_SHORT_PLAY_SECONDS : shortPlaySeconds) * 1000;
+        this.minPlays = minPlays == null ? DEFAULT_MIN_PLAYS : minPlays;
+        this.limit = limit == null ? DEFAULT_LIMIT : limit;
+    }
+
+    @Override
+    public Map<String, Object> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        for (StreamingHistoryEntry entry : entries) {
+            builder.add(entry);
+        }
+        return analyze(builder.build(), api);
+    }
+
+    @Override
+    public Map<String, Object> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        TimeIndex index = dataset.timeIndex();
+        int forwardButton = dataset.reasons().codeOf("fwdbtn");
+        int trackDone = dataset.reasons().codeOf("trackdone");
+        // Episodes and local files have no track URI; they count towards sessions and rates, not rankings
+        int noTrack = dataset.trackUris().codeOf("");
+
+        // Per track URI code
+        int tracks = dataset.trackUris().size();
+        int[] plays = new int[tracks];
+        int[] skips = new int[tracks];
+        long[] msTotal = new long[tracks];
+        int[] msLongest = new int[tracks];
+        int[] sampleRow = new int[tracks];
+
+        long forwardButtonPlays = 0;
+        long shortPlays = 0;
+        long skippedPlays = 0;
+        long trackDonePlays = 0;
+
+        long[] sessionLengths = new long[SESSION_BUCKET_MINUTES.length + 1];
+        long sessions = 0;
+        long sessionSeconds = 0;
+        long longestSession = 0;
+        long sessionStart = 0;
+        long sessionEnd = 0;
+
+        for (int position = 0; position < index.size(); position++) {
+            long start = index.startSecond(position);
+            long end = index.epochSecond(position);
+            if (position == 0 || start - sessionEnd > gapSeconds) {
+                if (position > 0) {
+                    long length = sessionEnd - sessionStart;
+                    sessionLengths[bucket(length)]++;
+                    sessionSeconds += length;
+                    longestSession = Math.max(longestSession, length);
+                }
+                sessions++;
+                sessionStart = start;
+            } else {
+                // A long play can start before the previous short one ended
+                sessionStart = Math.min(sessionStart, start);
+            }
+            sessionEnd = end;
+
+            int row = index.row(position);
+            int ms = dataset.msPlayed(row);
+            int reasonEnd = dataset.reasonEndCode(row);
+            boolean forward = reasonEnd == forwardButton;
+            boolean shortPlay = ms < shortPlayMs;
+            forwardButtonPlays += forward ? 1 : 0;
+            shortPlays += shortPlay ? 1 : 0;
+            trackDonePlays += reasonEnd == trackDone ? 1 : 0;
+
+            int track = dataset.trackUriCode(row);
+            plays[track]++;
+            msTotal[track] += ms;
+            msLongest[track] = Math.max(msLongest[track], ms);
+            sampleRow[track] = row;
+            if (forward || shortPlay) {
+                skips[track]++;
+                skippedPlays++;
+            }
+        }
+        if (index.size() > 0) {
+            long length = sessionEnd - sessionStart;
+            sessionLengths[bucket(length)]++;
+            sessionSeconds += length;
+            longestSession = Math.max(longestSession, length);
+        }
+
+        // Per play, completion is ms / longest of its track, so a track's plays add up to total / longest. All
+        // plays without a track URI share one code and would be measured against the longest of them.
+        double completionSum = 0;
+        int trackPlays = 0;
+        long[] skipRates = new long[tracks];
+        long[] incompletion = new long[tracks];
+        for (int track = 0; track < tracks; track++) {
+            double trackCompletion = completion(msTotal[track], msLongest[track]);
+            if (track != noTrack) {
+                completionSum += trackCompletion;
+                trackPlays += plays[track];
+            }
+            boolean ranked = plays[track] >= minPlays && track != noTrack;
+            skipRates[track] = ranked ? skips[track] * RATE_SCALE / plays[track] : -1;
+            incompletion[track] = ranked ? RATE_SCALE - Math.round(trackCompletion / plays[track] * RATE_SCALE) : -1;
+        }
+
+        int total = index.size();
+        Map<String, Long> lengthMinutes = new LinkedHashMap<>();
+        for (int bucket = 0; bucket < sessionLengths.length; bucket++) {
+            lengthMinutes.put(bucketLabel(bucket), sessionLengths[bucket]);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("sessions", new Sessions((int) (gapSeconds / 60), sessions,
+                round(sessions == 0 ? 0 : sessionSeconds / 60.0 / sessions), longestSession / 60,
+                round(sessions == 0 ? 0 : (double) total / sessions), lengthMinutes));
+        result.put("skips", new Skips(shortPlayMs / 1000, rate(skippedPlays, total),
+                rate(forwardButtonPlays, total), rate(shortPlays, total),
+                ranked(dataset, skipRates, plays, skips, msTotal, msLongest, sampleRow)));
+        result.put("completion", new Completion(round(trackPlays == 0 ? 0 : completionSum / trackPlays),
+                rate(trackDonePlays, total),
+                ranked(dataset, incompletion, plays, skips, msTotal, msLongest, sampleRow)));
+        return result;
+    }
+
+    // The tracks with the highest ranking values, more plays first among equals; -1 marks an unranked track
+    private List<TrackHabits> ranked(StreamingHistoryDataset dataset, long[] ranking, int[] plays, int[] skips,
+                                     long[] msTotal, int[] msLongest, int[] sampleRow) {
+        int[] top = TopK.largest(ranking, ranking.length, limit, (a, b) ->
+                plays[a] != plays[b] ? Integer.compare(plays[b], plays[a]) : Integer.compare(a, b));
+        List<TrackHabits> tracks = new ArrayList<>(top.length);
+        for (int track : top) {
+            if (ranking[track] < 0) {
+                break;
+            }
+            int row = sampleRow[track];
+            tracks.add(new TrackHabits(
+                    dataset.trackNames().decode(dataset.trackNameCode(row)),
+                    dataset.artistNames().decode(dataset.artistNameCode(row)),
+                    dataset.trackUris().decode(track),
+                    plays[track],
+                    rate(skips[track], plays[track]),
+                    round(completion(msTotal[track], msLongest[track]) / plays[track])));
+        }
+        return tracks;
+    }
+
+    // Sum of the track's per-play completions; 0 when every play lasted 0 ms, there is no longest play then
+    private static double completion(long msTotal, int msLongest) {
+        return msLongest == 0 ? 0 : (double) msTotal / msLongest;
+    }
+
+    private static int bucket(long sessionSeconds) {
+        int bucket = 0;
+        while (bucket < SESSION_BUCKET_MINUTES.length && sessionSeconds >= SESSION_BUCKET_MINUTES[bucket] * 60L) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static String bucketLabel(int bucket) {
+        int from = bucket == 0 ? 0 : SESSION_BUCKET_MINUTES[bucket - 1];
+        return bucket < SESSION_BUCKET_MINUTES.length ? from + "-" + SESSION_BUCKET_MINUTES[bucket] : from + "+";
+    }
+
+    private static double rate(long count, long total) {
+        return round(total == 0 ? 0 : (double) count / total);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10_000) / 10_000.0;
+    }
+}
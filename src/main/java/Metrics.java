@@ -0,0 +1,222 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Counters and latency histograms, rendered in the Prometheus text format on /metrics. Recording is a map
+// lookup for the labels plus LongAdder increments, cheap enough for every request and every Spotify call.
+// Percentiles such as p99 come from the cumulative buckets, e.g. histogram_quantile(0.99, rate(..._bucket[5m])).
+public final class Metrics {
+    // Upper bounds in seconds, from a cached response to a multi-gigabyte upload
+    private static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10, 30, 60};
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private static final Map<String, Family<?>> FAMILIES = new ConcurrentSkipListMap<>();
+    private static final Map<String, Supplier<BoundedCache.Stats>> CACHES = new ConcurrentSkipListMap<>();
+
+    // Failures that are logged and worked around rather than failing the caller, plus requests answered with
+    // a 500, per operation such as "snapshot-write" or "request"
+    public static final Family<Counter> ERRORS = counter(
+            "spotify_errors_total", "Errors logged by the server, per operation", "operation");
+
+    private Metrics() {
+    }
+
+    public static Family<Counter> counter(String name, String help, String... labelNames) {
+        return register(new Family<>(name, help, "counter", labelNames, Counter::new));
+    }
+
+    // Durations, recorded in nanoseconds and exposed in seconds
+    public static Family<Histogram> histogram(String name, String help, String... labelNames) {
+        return register(new Family<>(name, help, "histogram", labelNames, Histogram::new));
+    }
+
+    // Hits, misses, evictions and size of a cache, read from its stats when scraped
+    public static void registerCache(String name, Supplier<BoundedCache.Stats> stats) {
+        CACHES.put(name, stats);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Series> Family<T> register(Family<T> family) {
+        Family<?> registered = FAMILIES.computeIfAbsent(family.name, name -> family);
+        if (!registered.type.equals(family.type)) {
+            throw new IllegalArgumentException(family.name + " is already registered as a " + registered.type);
+        }
+        return (Family<T>) registered;
+    }
+
+    public interface Series {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    // One metric name, with a series per combination of label values
+    public static final class Family<T extends Series> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String[] labelNames;
+        private final Supplier<T> factory;
+        private final Map<List<String>, T> series = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String[] labelNames, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+            this.factory = factory;
+        }
+
+        public T labels(String... values) {
+            if (values.length != labelNames.length) {
+                throw new IllegalArgumentException(name + " takes labels " + List.of(labelNames));
+            }
+            List<String> key = List.of(values);
+            T existing = series.get(key);
+            return existing != null ? existing : series.computeIfAbsent(key, k -> factory.get());
+        }
+
+        private void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            List<Map.Entry<String, T>> sorted = new ArrayList<>();
+            series.forEach((values, value) -> sorted.add(Map.entry(Metrics.labels(labelNames, values), value)));
+            sorted.sort(Map.Entry.comparingByKey());
+            for (Map.Entry<String, T> entry : sorted) {
+                entry.getValue().write(out, name, entry.getKey());
+            }
+        }
+    }
+
+    public static final class Counter implements Series {
+        private final LongAdder count = new LongAdder();
+
+        public void inc() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            out.append(name).append(braced(labels)).append(' ').append(count.sum()).append('\n');
+        }
+    }
+
+    public static final class Histogram implements Series {
+        // Per bucket, not cumulative; the last one is +Inf
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            int bucket = 0;
+            while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        // Time since a System.nanoTime() reading
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                String bound = i < BUCKETS.length ? BigDecimal.valueOf(BUCKETS[i]).stripTrailingZeros().toPlainString() : "+Inf";
+                out.append(name).append("_bucket{").append(prefix).append("le=\"").append(bound).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum").append(braced(labels)).append(' ')
+                    .append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count").append(braced(labels)).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    // Everything registered, in the Prometheus text exposition format (version 0.0.4)
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Family<?> family : FAMILIES.values()) {
+            family.write(out);
+        }
+        Map<String, BoundedCache.Stats> caches = new TreeMap<>();
+        CACHES.forEach((name, stats) -> caches.put(name, stats.get()));
+        if (!caches.isEmpty()) {
+            writeCaches(out, caches);
+        }
+        return out.toString();
+    }
+
+    private static void writeCaches(StringBuilder out, Map<String, BoundedCache.Stats> caches) {
+        header(out, "spotify_cache_requests_total", "Cache lookups by result", "counter");
+        caches.forEach((name, stats) -> {
+            sample(out, "spotify_cache_requests_total", "cache=\"" + escape(name) + "\",result=\"hit\"", stats.hits());
+            sample(out, "spotify_cache_requests_total", "cache=\"" + escape(name) + "\",result=\"miss\"", stats.misses());
+        });
+        header(out, "spotify_cache_evictions_total", "Entries evicted for space or expired after being idle", "counter");
+        caches.forEach((name, stats) -> sample(out, "spotify_cache_evictions_total",
+                "cache=\"" + escape(name) + "\"", stats.evictions() + stats.expirations()));
+        header(out, "spotify_cache_entries", "Entries currently cached", "gauge");
+        caches.forEach((name, stats) -> sample(out, "spotify_cache_entries",
+                "cache=\"" + escape(name) + "\"", stats.entryCount()));
+        header(out, "spotify_cache_bytes", "Estimated bytes held by the cache", "gauge");
+        caches.forEach((name, stats) -> sample(out, "spotify_cache_bytes",
+                "cache=\"" + escape(name) + "\"", stats.weightedBytes()));
+        header(out, "spotify_cache_max_bytes", "Byte budget of the cache", "gauge");
+        caches.forEach((name, stats) -> sample(out, "spotify_cache_max_bytes",
+                "cache=\"" + escape(name) + "\"", stats.maxBytes()));
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String labels(String[] names, List<String> values) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(names[i]).append("=\"").append(escape(values.get(i))).append('"');
+        }
+        return labels.toString();
+    }
+
+    private static String braced(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
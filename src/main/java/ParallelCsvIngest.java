@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Splits a CSV file into row-aligned byte ranges and parses them concurrently, one builder (with its own
+// dictionaries) per range, then appends the parts in file order.
+//
+// A newline only ends a row when it is outside a quoted field. As in StreamingHistoryCsvReader, a quote
+// only opens a quoted field at the start of a field (after any blanks); elsewhere, e.g. in 12" Mix, it is
+// a literal, so counting quotes is not enough. Instead each raw range is run through the reader's four
+// states (field start, unquoted, quoted, quote inside quoted) from every possible starting state, in
+// parallel. Chaining the results from the start of the file gives the exact state at every split point
+// without a sequential scan; each split point is then moved forward to the next newline that ends a row.
+public final class ParallelCsvIngest {
+    // Keeps every mapped range well below the 2 GB limit of a single MappedByteBuffer
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    // Quote inside a quoted field, either the first of a "" escape or the closing quote
+    private static final int QUOTE = 3;
+    private static final int STATES = 4;
+
+    private ParallelCsvIngest() {
+    }
+
+    public static StreamingHistoryDataset parse(Path file, ExecutorService executor, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = (int) Math.max(parallelism, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+
+            long[] rawStarts = new long[chunks + 1];
+            for (int i = 0; i <= chunks; i++) {
+                rawStarts[i] = size * i / chunks;
+            }
+
+            // End state of each raw range per start state, computed concurrently, then chained
+            List<Future<int[]>> transitions = new ArrayList<>();
+            for (int i = 0; i < chunks; i++) {
+                MappedByteBuffer range = map(channel, rawStarts[i], rawStarts[i + 1]);
+                transitions.add(executor.submit(() -> endStates(range)));
+            }
+            int[] stateAt = new int[chunks];
+            int state = FIELD_START;
+            for (int i = 0; i < chunks; i++) {
+                stateAt[i] = state;
+                state = SpotifyDataService.await(transitions.get(i))[state];
+            }
+
+            // Row-aligned boundaries; the header row is read on its own
+            long headerEnd = nextRowStart(channel, 0, FIELD_START);
+            int[] columnIndexes = new StreamingHistoryCsvReader(new ByteBufferInputStream(map(channel, 0, headerEnd)))
+                    .columnIndexes();
+            long[] boundaries = new long[chunks + 1];
+            boundaries[0] = headerEnd;
+            for (int i = 1; i < chunks; i++) {
+                long aligned = rawStarts[i] <= headerEnd ? headerEnd : nextRowStart(channel, rawStarts[i], stateAt[i]);
+                boundaries[i] = Math.max(aligned, boundaries[i - 1]);
+            }
+            boundaries[chunks] = size;
+
+            List<Future<StreamingHistoryDataset>> pending = new ArrayList<>();
+            for (int i = 0; i < chunks; i++) {
+                if (boundaries[i] >= boundaries[i + 1]) {
+                    continue;
+                }
+                MappedByteBuffer range = map(channel, boundaries[i], boundaries[i + 1]);
+                pending.add(executor.submit(() -> {
+                    StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+                    new StreamingHistoryCsvReader(new ByteBufferInputStream(range), columnIndexes).readInto(builder);
+                    return builder.buildPart();
+                }));
+            }
+
+            List<StreamingHistoryDataset> parts = new ArrayList<>();
+            for (Future<StreamingHistoryDataset> part : pending) {
+                parts.add(SpotifyDataService.await(part));
+            }
+            if (parts.isEmpty()) {
+                return StreamingHistoryDataset.builder().build();
+            }
+            return StreamingHistoryDataset.concat(parts);
+        }
+    }
+
+    // The state after the range for each state it may start in. Once the four runs reach the same state
+    // they stay together, which usually happens within the first row.
+    private static int[] endStates(ByteBuffer range) {
+        int[] states = {FIELD_START, UNQUOTED, QUOTED, QUOTE};
+        int i = range.position();
+        for (; i < range.limit() && !converged(states); i++) {
+            byte b = range.get(i);
+            for (int start = 0; start < STATES; start++) {
+                states[start] = next(states[start], b);
+            }
+        }
+        int state = states[0];
+        for (; i < range.limit(); i++) {
+            state = next(state, range.get(i));
+        }
+        if (converged(states)) {
+            Arrays.fill(states, state);
+        }
+        return states;
+    }
+
+    private static boolean converged(int[] states) {
+        return states[0] == states[1] && states[1] == states[2] && states[2] == states[3];
+    }
+
+    // StreamingHistoryCsvReader.readRow's handling of one byte
+    private static int next(int state, byte b) {
+        return switch (state) {
+            case FIELD_START -> b == '"' ? QUOTED
+                    : b == ',' || b == '\n' || (b >= 0 && b <= ' ') ? FIELD_START : UNQUOTED;
+            case UNQUOTED -> b == ',' || b == '\n' ? FIELD_START : UNQUOTED;
+            case QUOTED -> b == '"' ? QUOTE : QUOTED;
+            default -> b == '"' ? QUOTED : b == ',' || b == '\n' ? FIELD_START : UNQUOTED;
+        };
+    }
+
+    // Offset just past the first newline at or after "from" that ends a row, or the file size
+    private static long nextRowStart(FileChannel channel, long from, int state) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' && state != QUOTED) {
+                    return position + i + 1;
+                }
+                state = next(state, b);
+            }
+            position += read;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
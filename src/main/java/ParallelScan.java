@@ -0,0 +1,144 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+// Scans over large row ranges, split into one partition per worker of a dedicated ForkJoinPool. Each
+// partition accumulates into its own partial result (primitive arrays, nothing shared), and partials are
+// merged pairwise as the fork-join tree completes. The pool is separate from the common pool and bounded,
+// so concurrent requests share its workers instead of each fanning out over every core, and parallel
+// streams elsewhere are not starved. Ranges under the threshold are scanned on the calling thread, where
+// splitting would cost more than it saves.
+public final class ParallelScan {
+    // Workers of the scan pool, overridable with -Dspotify.analysis.parallelism
+    static final int PARALLELISM = Integer.getInteger("spotify.analysis.parallelism",
+            Runtime.getRuntime().availableProcessors());
+    // Ranges with fewer rows are scanned sequentially, -Dspotify.analysis.parallelThreshold
+    static final int THRESHOLD = Integer.getInteger("spotify.analysis.parallelThreshold", 250_000);
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, PARALLELISM), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("analysis-scan-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
+    // Accumulates rows [from, to) into a partial result
+    @FunctionalInterface
+    public interface RangeScan<A> {
+        void scan(A partial, int from, int to);
+    }
+
+    private ParallelScan() {
+    }
+
+    public static boolean isParallel(int rows) {
+        return PARALLELISM > 1 && rows >= THRESHOLD;
+    }
+
+    // Rows per partition of a scan over this many rows: all of them below the threshold, one partition per
+    // worker above it
+    static int partitionRows(int rows) {
+        return isParallel(rows) ? (int) Math.ceil((double) rows / PARALLELISM) : rows;
+    }
+
+    // Rows [from, to) scanned into partials created by `partial`, merged into one with `merge`. Partitions
+    // are contiguous and merged in order, so merge may rely on `left` holding the earlier rows.
+    public static <A> A scan(int from, int to, Supplier<A> partial, RangeScan<A> scan, BinaryOperator<A> merge) {
+        return scan(from, to, partitionRows(to - from), partial, scan, merge);
+    }
+
+    // As above with the partition size given, so tests can split small ranges
+    static <A> A scan(int from, int to, int partitionRows, Supplier<A> partial, RangeScan<A> scan,
+                      BinaryOperator<A> merge) {
+        if (to - from <= partitionRows) {
+            A result = partial.get();
+            scan.scan(result, from, to);
+            return result;
+        }
+        return POOL.invoke(new ScanTask<>(from, to, Math.max(1, partitionRows), partial, scan, merge));
+    }
+
+    // Feeds every row of the dataset to the accumulators. In parallel only when all of them can fork, each
+    // partition then accepts its rows into forks that are merged back into the given accumulators. Forks
+    // are only created once the scan is split, so a small dataset is scanned without any.
+    public static void accept(StreamingHistoryDataset dataset, List<Analysis.Accumulator> accumulators) {
+        accept(dataset, accumulators, partitionRows(dataset.size()));
+    }
+
+    static void accept(StreamingHistoryDataset dataset, List<Analysis.Accumulator> accumulators, int partitionRows) {
+        Analysis.Accumulator[] all = accumulators.toArray(new Analysis.Accumulator[0]);
+        if (dataset.size() <= partitionRows || !canFork(all)) {
+            acceptRows(dataset, all, 0, dataset.size());
+            return;
+        }
+        Analysis.Accumulator[] merged = scan(0, dataset.size(), partitionRows,
+                () -> {
+                    Analysis.Accumulator[] forks = new Analysis.Accumulator[all.length];
+                    for (int i = 0; i < all.length; i++) {
+                        forks[i] = all[i].fork();
+                    }
+                    return forks;
+                },
+                (forks, from, to) -> acceptRows(dataset, forks, from, to),
+                (left, right) -> {
+                    for (int i = 0; i < left.length; i++) {
+                        left[i].merge(right[i]);
+                    }
+                    return left;
+                });
+        for (int i = 0; i < all.length; i++) {
+            all[i].merge(merged[i]);
+        }
+    }
+
+    private static boolean canFork(Analysis.Accumulator[] accumulators) {
+        for (Analysis.Accumulator accumulator : accumulators) {
+            if (!accumulator.canFork()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void acceptRows(StreamingHistoryDataset dataset, Analysis.Accumulator[] accumulators, int from, int to) {
+        for (int row = from; row < to; row++) {
+            for (Analysis.Accumulator accumulator : accumulators) {
+                accumulator.accept(dataset, row);
+            }
+        }
+    }
+
+    private static final class ScanTask<A> extends RecursiveTask<A> {
+        private final int from;
+        private final int to;
+        private final int partitionRows;
+        private final Supplier<A> partial;
+        private final RangeScan<A> scan;
+        private final BinaryOperator<A> merge;
+
+        private ScanTask(int from, int to, int partitionRows, Supplier<A> partial, RangeScan<A> scan, BinaryOperator<A> merge) {
+            this.from = from;
+            this.to = to;
+            this.partitionRows = partitionRows;
+            this.partial = partial;
+            this.scan = scan;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= partitionRows) {
+                A result = partial.get();
+                scan.scan(result, from, to);
+                return result;
+            }
+            int middle = from + (to - from) / 2;
+            ScanTask<A> right = new ScanTask<>(middle, to, partitionRows, partial, scan, merge);
+            right.fork();
+            A left = new ScanTask<>(from, middle, partitionRows, partial, scan, merge).compute();
+            return merge.apply(left, right.join());
+        }
+    }
+}
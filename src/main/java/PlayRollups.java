@@ -0,0 +1,308 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Minutes played and play counts per (year, month) bucket, keyed by track URI, artist and (album, artist)
+// codes. Built once at ingestion, so the Top* queries merge a few small buckets instead of rescanning
+// every play; their cost follows the number of distinct keys in the selected months.
+public final class PlayRollups {
+
+    public enum Dimension { TRACK, ARTIST, ALBUM }
+
+    // Parallel arrays sorted by key, one entry per key with at least one play
+    public record Totals(int[] keys, long[] minutes, int[] plays) {
+        static final Totals EMPTY = new Totals(new int[0], new long[0], new int[0]);
+
+        public int size() {
+            return keys.length;
+        }
+    }
+
+    private static final Dimension[] DIMENSIONS = Dimension.values();
+
+    // Bucket index = year * 12 + month - 1 - firstMonth
+    private final int firstMonth;
+    private final int bucketCount;
+    private final Totals[][] buckets;
+    private final Totals[] overall;
+
+    private PlayRollups(int firstMonth, int bucketCount, Totals[][] buckets, Totals[] overall) {
+        this.firstMonth = firstMonth;
+        this.bucketCount = bucketCount;
+        this.buckets = buckets;
+        this.overall = overall;
+    }
+
+    static PlayRollups build(StreamingHistoryDataset dataset) {
+        return build(dataset, ParallelScan.partitionRows(dataset.size()));
+    }
+
+    // Built in partitions of the given size, so tests can split small datasets
+    static PlayRollups build(StreamingHistoryDataset dataset, int partitionRows) {
+        Totals[] overall = new Totals[DIMENSIONS.length];
+        Arrays.fill(overall, Totals.EMPTY);
+        return new PlayRollups(0, 0, new Totals[DIMENSIONS.length][0], overall).withRows(dataset, 0, partitionRows);
+    }
+
+    // These rollups plus rows [fromRow, size) of a dataset that extends the one they were built from (see
+    // StreamingHistoryDataset.append). Only the months the new rows fall into and the overall totals are
+    // merged again, every other bucket is shared with this instance.
+    PlayRollups withRows(StreamingHistoryDataset dataset, int fromRow) {
+        return withRows(dataset, fromRow, ParallelScan.partitionRows(dataset.size() - fromRow));
+    }
+
+    private PlayRollups withRows(StreamingHistoryDataset dataset, int fromRow, int partitionRows) {
+        int added = dataset.size() - fromRow;
+        if (added <= 0) {
+            return this;
+        }
+        int[] keySpace = keySpace(dataset);
+
+        // Month of each new row, computed in partitions of the scan pool along with the range they span
+        int[] monthOfRow = new int[added];
+        int[] addedMonths = ParallelScan.scan(fromRow, dataset.size(), partitionRows,
+                () -> new int[] {Integer.MAX_VALUE, Integer.MIN_VALUE},
+                (range, from, to) -> {
+                    for (int row = from; row < to; row++) {
+                        long yearMonth = EpochTime.yearMonth(dataset.epochSecond(row));
+                        int month = (int) ((yearMonth >> 4) * 12 + (yearMonth & 0xF) - 1);
+                        monthOfRow[row - fromRow] = month;
+                        range[0] = Math.min(range[0], month);
+                        range[1] = Math.max(range[1], month);
+                    }
+                },
+                (left, right) -> new int[] {Math.min(left[0], right[0]), Math.max(left[1], right[1])});
+        int first = bucketCount == 0 ? addedMonths[0] : Math.min(firstMonth, addedMonths[0]);
+        int last = bucketCount == 0 ? addedMonths[1] : Math.max(firstMonth + bucketCount - 1, addedMonths[1]);
+
+        // Counting sort of the new rows by bucket
+        int newBucketCount = last - first + 1;
+        int[] bucketStarts = new int[newBucketCount + 1];
+        for (int i = 0; i < added; i++) {
+            bucketStarts[monthOfRow[i] - first + 1]++;
+        }
+        for (int bucket = 0; bucket < newBucketCount; bucket++) {
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        }
+        int[] rowsByBucket = new int[added];
+        int[] next = Arrays.copyOf(bucketStarts, newBucketCount);
+        for (int i = 0; i < added; i++) {
+            rowsByBucket[next[monthOfRow[i] - first]++] = fromRow + i;
+        }
+
+        Totals[][] newBuckets = new Totals[DIMENSIONS.length][newBucketCount];
+        Totals[] newOverall = new Totals[DIMENSIONS.length];
+        for (Dimension dimension : DIMENSIONS) {
+            int d = dimension.ordinal();
+            Arrays.fill(newBuckets[d], Totals.EMPTY);
+            if (bucketCount > 0) {
+                System.arraycopy(buckets[d], 0, newBuckets[d], firstMonth - first, bucketCount);
+            }
+
+            // Totals of the new rows per bucket and overall, from partitions of the bucket-sorted rows
+            BucketScan scanned = ParallelScan.scan(0, added, partitionRows,
+                    () -> new BucketScan(keySpace[d], newBucketCount),
+                    (scan, from, to) -> scan.add(dataset, dimension, rowsByBucket, bucketStarts, from, to),
+                    BucketScan::merge);
+            for (int bucket = 0; bucket < newBucketCount; bucket++) {
+                newBuckets[d][bucket] = merge(newBuckets[d][bucket], scanned.buckets[bucket]);
+            }
+            newOverall[d] = merge(overall[d], scanned.overall);
+        }
+        return new PlayRollups(first, newBucketCount, newBuckets, newOverall);
+    }
+
+    // Sum of two totals, merged along their sorted keys
+    private static Totals merge(Totals left, Totals right) {
+        if (left.size() == 0) {
+            return right;
+        }
+        if (right.size() == 0) {
+            return left;
+        }
+        int[] keys = new int[left.size() + right.size()];
+        long[] minutes = new long[keys.length];
+        int[] plays = new int[keys.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < left.size() || j < right.size()) {
+            int key = j == right.size() || i < left.size() && left.keys()[i] < right.keys()[j]
+                    ? left.keys()[i] : right.keys()[j];
+            keys[size] = key;
+            if (i < left.size() && left.keys()[i] == key) {
+                minutes[size] += left.minutes()[i];
+                plays[size] += left.plays()[i++];
+            }
+            if (j < right.size() && right.keys()[j] == key) {
+                minutes[size] += right.minutes()[j];
+                plays[size] += right.plays()[j++];
+            }
+            size++;
+        }
+        return new Totals(Arrays.copyOf(keys, size), Arrays.copyOf(minutes, size), Arrays.copyOf(plays, size));
+    }
+
+    // Totals of a partition of the bucket-sorted rows. A bucket cut by a partition boundary gets totals from
+    // both partitions, added up when they are merged.
+    private static final class BucketScan {
+        private final Accumulator bucketTotals;
+        private final Accumulator overallTotals;
+        private final Totals[] buckets;
+        private Totals overall = Totals.EMPTY;
+
+        private BucketScan(int keySpace, int bucketCount) {
+            this.bucketTotals = new Accumulator(keySpace);
+            this.overallTotals = new Accumulator(keySpace);
+            this.buckets = new Totals[bucketCount];
+            Arrays.fill(buckets, Totals.EMPTY);
+        }
+
+        // Positions [from, to) of rowsByBucket
+        private void add(StreamingHistoryDataset dataset, Dimension dimension, int[] rowsByBucket, int[] bucketStarts,
+                         int from, int to) {
+            // Last bucket starting at or before from; empty buckets share their start with the next one
+            int bucket = Arrays.binarySearch(bucketStarts, from);
+            if (bucket < 0) {
+                bucket = -bucket - 2;
+            }
+            while (bucket + 1 < bucketStarts.length && bucketStarts[bucket + 1] <= from) {
+                bucket++;
+            }
+            for (int position = from; position < to; bucket++) {
+                int end = Math.min(to, bucketStarts[bucket + 1]);
+                for (; position < end; position++) {
+                    int row = rowsByBucket[position];
+                    int key = key(dataset, dimension, row);
+                    long minutes = dataset.minutesPlayed(row);
+                    bucketTotals.add(key, minutes, 1);
+                    overallTotals.add(key, minutes, 1);
+                }
+                buckets[bucket] = bucketTotals.drain();
+            }
+            overall = overallTotals.drain();
+        }
+
+        private static BucketScan merge(BucketScan left, BucketScan right) {
+            for (int bucket = 0; bucket < left.buckets.length; bucket++) {
+                left.buckets[bucket] = PlayRollups.merge(left.buckets[bucket], right.buckets[bucket]);
+            }
+            left.overall = PlayRollups.merge(left.overall, right.overall);
+            return left;
+        }
+    }
+
+    // Totals for the given filters, null meaning "any": a year, a month across all years, or both
+    public Totals totals(Dimension dimension, Integer year, Integer month) {
+        if (year == null && month == null) {
+            return overall[dimension.ordinal()];
+        }
+
+        // The matching buckets, merged pairwise along their sorted keys: no scratch space over all keys, and
+        // one or no bucket is returned as it is
+        Totals[] dimensionBuckets = buckets[dimension.ordinal()];
+        List<Totals> selected = new ArrayList<>();
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            int absoluteMonth = firstMonth + bucket;
+            if (year != null && Math.floorDiv(absoluteMonth, 12) != year) {
+                continue;
+            }
+            if (month != null && Math.floorMod(absoluteMonth, 12) + 1 != month) {
+                continue;
+            }
+            if (dimensionBuckets[bucket].size() > 0) {
+                selected.add(dimensionBuckets[bucket]);
+            }
+        }
+        if (selected.isEmpty()) {
+            return Totals.EMPTY;
+        }
+        while (selected.size() > 1) {
+            List<Totals> merged = new ArrayList<>((selected.size() + 1) / 2);
+            for (int i = 0; i < selected.size(); i += 2) {
+                merged.add(i + 1 < selected.size() ? merge(selected.get(i), selected.get(i + 1)) : selected.get(i));
+            }
+            selected = merged;
+        }
+        return selected.get(0);
+    }
+
+    public long estimatedRetainedBytes() {
+        long bytes = 64;
+        for (int d = 0; d < DIMENSIONS.length; d++) {
+            bytes += estimatedBytes(overall[d]);
+            for (Totals totals : buckets[d]) {
+                bytes += estimatedBytes(totals);
+            }
+        }
+        return bytes;
+    }
+
+    private static long estimatedBytes(Totals totals) {
+        return 80 + 16L * totals.size();
+    }
+
+    private static int[] keySpace(StreamingHistoryDataset dataset) {
+        int[] keySpace = new int[DIMENSIONS.length];
+        for (Dimension dimension : DIMENSIONS) {
+            keySpace[dimension.ordinal()] = keySpace(dataset, dimension);
+        }
+        return keySpace;
+    }
+
+    private static int keySpace(StreamingHistoryDataset dataset, Dimension dimension) {
+        return switch (dimension) {
+            case TRACK -> dataset.trackUris().size();
+            case ARTIST -> dataset.artistNames().size();
+            case ALBUM -> dataset.albumArtistCount();
+        };
+    }
+
+    private static int key(StreamingHistoryDataset dataset, Dimension dimension, int row) {
+        return switch (dimension) {
+            case TRACK -> dataset.trackUriCode(row);
+            case ARTIST -> dataset.artistNameCode(row);
+            case ALBUM -> dataset.albumArtistCode(row);
+        };
+    }
+
+    // Dense scratch arrays over the whole key space; only the touched keys are read back and reset
+    private static final class Accumulator {
+        private final long[] minutes;
+        private final int[] plays;
+        private final int[] touched;
+        private int touchedCount;
+
+        private Accumulator(int keySpace) {
+            this.minutes = new long[keySpace];
+            this.plays = new int[keySpace];
+            this.touched = new int[keySpace];
+        }
+
+        private void add(int key, long keyMinutes, int keyPlays) {
+            if (plays[key] == 0) {
+                touched[touchedCount++] = key;
+            }
+            minutes[key] += keyMinutes;
+            plays[key] += keyPlays;
+        }
+
+        private Totals drain() {
+            if (touchedCount == 0) {
+                return Totals.EMPTY;
+            }
+            int[] keys = Arrays.copyOf(touched, touchedCount);
+            Arrays.sort(keys);
+            long[] keyMinutes = new long[keys.length];
+            int[] keyPlays = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keyMinutes[i] = minutes[keys[i]];
+                keyPlays[i] = plays[keys[i]];
+                minutes[keys[i]] = 0;
+                plays[keys[i]] = 0;
+            }
+            touchedCount = 0;
+            return new Totals(keys, keyMinutes, keyPlays);
+        }
+    }
+}
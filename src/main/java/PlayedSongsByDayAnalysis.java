@@ -1,4 +1,8 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -23,4 +27,29 @@ public class PlayedSongsByDayAnalysis implements Analysis {
                 .limit(limit)
                 .collect(Collectors.toList());
     }
-}
\ No newline at end of file
+
+    // Only the day's slice of the time index is read, no scan over the other days
+    @Override
+    public List<String> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        long epochDay = LocalDate.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd")).toEpochDay();
+        TimeIndex index = dataset.timeIndex();
+        int start = index.dayStart(epochDay);
+        int[] rows = new int[index.dayEnd(epochDay) - start];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = index.row(start + i);
+        }
+        // First-played order within the day is row order, same as the entry scan
+        Arrays.sort(rows);
+
+        // Sized to the day's rows, a few dozen, not to the dataset's distinct tracks
+        Set<Integer> seen = new HashSet<>(Math.min(rows.length, limit) * 2);
+        List<String> trackUris = new ArrayList<>();
+        for (int i = 0; i < rows.length && trackUris.size() < limit; i++) {
+            int track = dataset.trackUriCode(rows[i]);
+            if (seen.add(track)) {
+                trackUris.add(dataset.trackUris().decode(track));
+            }
+        }
+        return trackUris;
+    }
+}
@@ -0,0 +1,81 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Plays between two dates (inclusive, UTC), optionally only those in one hour of the day, in time order.
+// Returns the total count and the first `limit` plays. Each day is located through the time index and
+// the hour by a binary search within the day, so the cost follows the days and plays returned.
+public class PlaysInRangeAnalysis implements Analysis {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final Long fromDay;
+    private final Long toDay;
+    private final Integer hour;
+    private final int limit;
+
+    // Dates as yyyy-MM-dd, null for an open end; hour 0-23 or null for the whole day
+    public PlaysInRangeAnalysis(String from, String to, Integer hour, Integer limit) {
+        this.fromDay = from == null ? null : LocalDate.parse(from, DATE_FORMAT).toEpochDay();
+        this.toDay = to == null ? null : LocalDate.parse(to, DATE_FORMAT).toEpochDay();
+        if (hour != null && (hour < 0 || hour > 23)) {
+            throw new IllegalArgumentException("Hour must be between 0 and 23");
+        }
+        if (limit != null && (limit < 0 || limit > MAX_LIMIT)) {
+            throw new IllegalArgumentException("Limit must be between 0 and " + MAX_LIMIT);
+        }
+        this.hour = hour;
+        this.limit = limit == null ? DEFAULT_LIMIT : limit;
+    }
+
+    @Override
+    public Map<String, Object> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        for (StreamingHistoryEntry entry : entries) {
+            builder.add(entry);
+        }
+        return analyze(builder.build(), api);
+    }
+
+    @Override
+    public Map<String, Object> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        TimeIndex index = dataset.timeIndex();
+        long first = Math.max(fromDay == null ? Long.MIN_VALUE : fromDay, index.firstDay());
+        long last = Math.min(toDay == null ? Long.MAX_VALUE : toDay, index.lastDay());
+
+        int total = 0;
+        List<StreamingHistoryEntry> plays = new ArrayList<>();
+        if (hour == null) {
+            if (first <= last) {
+                int start = index.dayStart(first);
+                int end = index.dayEnd(last);
+                total = end - start;
+                addPlays(dataset, index, start, end, plays);
+            }
+        } else {
+            for (long day = first; day <= last; day++) {
+                long hourStart = day * 86_400 + hour * 3600L;
+                int start = index.positionOf(hourStart);
+                int end = index.positionOf(hourStart + 3600);
+                total += end - start;
+                addPlays(dataset, index, start, end, plays);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", total);
+        result.put("plays", plays);
+        return result;
+    }
+
+    private void addPlays(StreamingHistoryDataset dataset, TimeIndex index, int start, int end,
+                          List<StreamingHistoryEntry> plays) {
+        for (int position = start; position < end && plays.size() < limit; position++) {
+            plays.add(dataset.entry(index.row(position)));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+
+// Analysis results as serialized JSON, keyed by dataset ID, dataset version and request. An analysis is
+// deterministic for a dataset version, so a hit skips the analysis, the Spotify lookups and serialization.
+// Each entry carries a strong ETag derived from its bytes for If-None-Match revalidation. Entries of
+// earlier versions are never asked for again and age out under the byte budget.
+//
+// With an external tier, final results are also published there, and a local miss is looked up there
+// before the analysis runs, so a result computed on one node is replayed by the others. Tier failures only
+// cost that shortcut; results are not single-flight across nodes, a race computes the same bytes twice.
+public class ResponseCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCache.class);
+
+    public record Response(byte[] json, String etag) {
+    }
+
+    private final BoundedCache<String, Response> cache;
+    // Null when there is none
+    private final ExternalCacheTier tier;
+
+    public ResponseCache(long maxBytes, long idleTtlMillis) {
+        this(maxBytes, idleTtlMillis, null);
+    }
+
+    public ResponseCache(long maxBytes, long idleTtlMillis, ExternalCacheTier tier) {
+        // Key, node and array headers on top of the JSON itself
+        this.cache = new BoundedCache<>(maxBytes, idleTtlMillis, response -> response.json().length + 200L);
+        this.tier = tier;
+    }
+
+    public static String key(String datasetId, int version, String request) {
+        return datasetId + "@" + version + " " + request;
+    }
+
+    public Response get(String key) {
+        Response response = cache.getIfPresent(key);
+        if (response != null || tier == null) {
+            return response;
+        }
+        try {
+            byte[] shared = tier.get(tierKey(key));
+            ExternalCacheTier.LOOKUPS.labels("result", shared != null ? "hit" : "miss").inc();
+            if (shared == null) {
+                return null;
+            }
+            response = decode(shared);
+        } catch (IOException e) {
+            Metrics.ERRORS.labels("tier-read").inc();
+            LOG.warn("Error reading result from the shared tier: {}", e.getMessage());
+            return null;
+        }
+        cache.put(key, response);
+        return response;
+    }
+
+    // Stores the JSON unless the result is still incomplete; either way returns it with its ETag
+    public Response put(String key, Object result, byte[] json) {
+        Response response = new Response(json, etag(json));
+        if (isFinal(result)) {
+            cache.put(key, response);
+            if (tier != null) {
+                try {
+                    tier.put(tierKey(key), encode(response));
+                } catch (IOException e) {
+                    Metrics.ERRORS.labels("tier-write").inc();
+                    LOG.warn("Error writing result to the shared tier: {}", e.getMessage());
+                }
+            }
+        }
+        return response;
+    }
+
+    public BoundedCache.Stats stats() {
+        return cache.stats();
+    }
+
+    // If-None-Match holds a list of entity tags or "*"; weak tags match too, as RFC 9110 asks for this header
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String tierKey(String key) {
+        return "result/" + key;
+    }
+
+    // ETag, then the JSON bytes as they are sent
+    private static byte[] encode(Response response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(response.json().length + 40);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(response.etag());
+        out.writeInt(response.json().length);
+        out.write(response.json());
+        return bytes.toByteArray();
+    }
+
+    private static Response decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        String etag = in.readUTF();
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Corrupt result: " + length + " bytes of JSON");
+        }
+        byte[] json = new byte[length];
+        in.readFully(json);
+        return new Response(json, etag);
+    }
+
+    // Results with Spotify lookups that failed or ran out of time are served, but not cached
+    private static boolean isFinal(Object result) {
+        if (result instanceof SpotifyAPIService.IncompleteIds) {
+            return false;
+        }
+        if (result instanceof Map<?, ?> map) {
+            return map.values().stream().allMatch(ResponseCache::isFinal);
+        }
+        return true;
+    }
+
+    private static String etag(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 27) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The listening session at a timestamp, with the sessions just before and after it. A session is a run
+// of plays where each starts at most `gapMinutes` after the previous one ended. The timestamp is found by
+// binary search in the time index and sessions are grown from there, so only their plays are read.
+public class SessionsAroundAnalysis implements Analysis {
+    public static final int DEFAULT_GAP_MINUTES = 30;
+
+    private final long epochSecond;
+    private final long gapSeconds;
+
+    public record Session(LocalDateTime start, LocalDateTime end, long minutesPlayed, List<StreamingHistoryEntry> plays) {
+    }
+
+    // Timestamp as yyyy-MM-ddTHH:mm:ssZ, like the export's ts column
+    public SessionsAroundAnalysis(String timestamp, Integer gapMinutes) {
+        this.epochSecond = EpochTime.parseUtcTimestamp(timestamp);
+        if (epochSecond == Long.MIN_VALUE) {
+            throw new IllegalArgumentException("Timestamp must look like 2024-01-31T18:00:00Z");
+        }
+        if (gapMinutes != null && gapMinutes < 0) {
+            throw new IllegalArgumentException("Gap must not be negative");
+        }
+        this.gapSeconds = (gapMinutes == null ? DEFAULT_GAP_MINUTES : gapMinutes) * 60L;
+    }
+
+    @Override
+    public Map<String, Session> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        for (StreamingHistoryEntry entry : entries) {
+            builder.add(entry);
+        }
+        return analyze(builder.build(), api);
+    }
+
+    @Override
+    public Map<String, Session> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        TimeIndex index = dataset.timeIndex();
+        // First play ending at or after the timestamp; the timestamp is inside its session if the play was
+        // already running then, or if it falls into a pause shorter than the gap
+        int position = index.positionOf(epochSecond);
+        int[] previous = null;
+        int[] current = null;
+        int[] next = null;
+        if (position < index.size() && (index.startSecond(position) <= epochSecond
+                || position > 0 && index.startSecond(position) - index.epochSecond(position - 1) <= gapSeconds)) {
+            current = index.session(position, gapSeconds);
+            previous = current[0] > 0 ? index.session(current[0] - 1, gapSeconds) : null;
+            next = current[1] < index.size() ? index.session(current[1], gapSeconds) : null;
+        } else {
+            previous = position > 0 ? index.session(position - 1, gapSeconds) : null;
+            next = position < index.size() ? index.session(position, gapSeconds) : null;
+        }
+
+        Map<String, Session> result = new LinkedHashMap<>();
+        result.put("previous", session(dataset, index, previous));
+        result.put("current", session(dataset, index, current));
+        result.put("next", session(dataset, index, next));
+        return result;
+    }
+
+    private static Session session(StreamingHistoryDataset dataset, TimeIndex index, int[] range) {
+        if (range == null) {
+            return null;
+        }
+        List<StreamingHistoryEntry> plays = new ArrayList<>(range[1] - range[0]);
+        long minutes = 0;
+        long start = Long.MAX_VALUE;
+        for (int position = range[0]; position < range[1]; position++) {
+            plays.add(dataset.entry(index.row(position)));
+            minutes += dataset.minutesPlayed(index.row(position));
+            start = Math.min(start, index.startSecond(position));
+        }
+        return new Session(
+                LocalDateTime.ofEpochSecond(start, 0, ZoneOffset.UTC),
+                LocalDateTime.ofEpochSecond(index.epochSecond(range[1] - 1), 0, ZoneOffset.UTC),
+                minutes, plays);
+    }
+}
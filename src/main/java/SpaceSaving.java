@@ -0,0 +1,142 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Heavy-hitter sketch (Metwally et al., "Space-Saving"): at most `capacity` counters, each an upper bound on
+// its key's count with the most it may overestimate by. A key not in the sketch was counted at most floor()
+// times. Count-Min would also bound the counts, but cannot list the top keys without keeping them elsewhere.
+//
+// Error bound: after N counted plays, every count overestimates by at most N / capacity, and any key counted
+// more than N / capacity times is in the sketch. Merging (Agarwal et al., "Mergeable summaries") charges a
+// key missing from one side that side's floor, so the bounds of merged sketches add up: at most the sum of
+// each input's N / capacity.
+public final class SpaceSaving {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Comparator<Counter> BY_COUNT = Comparator.comparingLong(Counter::count).reversed()
+            .thenComparing(Counter::key);
+
+    // Label is what to show for the key, e.g. the track name for a track URI
+    public record Counter(String key, String label, long count, long error) {
+    }
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private long floor;
+
+    public SpaceSaving() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+    }
+
+    // The sketch of exact counts: the largest `capacity` of them, with no error. Cheaper than offering them
+    // one by one when the counts are known, e.g. from a dataset's columns.
+    public static SpaceSaving ofCounts(int capacity, List<Counter> exact) {
+        SpaceSaving sketch = new SpaceSaving(capacity);
+        sketch.keepLargest(new ArrayList<>(exact));
+        return sketch;
+    }
+
+    // Counts weight more occurrences of key. A new key takes over the smallest counter when the sketch is
+    // full, found by a scan over the counters, so this suits a stream of up to a few hundred distinct keys.
+    public void offer(String key, String label, long weight) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counters.put(key, new Counter(key, counter.label(), counter.count() + weight, counter.error()));
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(key, label, weight, 0));
+            return;
+        }
+        Counter smallest = null;
+        for (Counter candidate : counters.values()) {
+            if (smallest == null || candidate.count() < smallest.count()) {
+                smallest = candidate;
+            }
+        }
+        counters.remove(smallest.key());
+        counters.put(key, new Counter(key, label, smallest.count() + weight, smallest.count()));
+        floor = smallest.count();
+    }
+
+    public void merge(SpaceSaving other) {
+        List<Counter> merged = new ArrayList<>(counters.size() + other.counters.size());
+        for (Counter counter : counters.values()) {
+            Counter match = other.counters.get(counter.key());
+            merged.add(match == null
+                    ? new Counter(counter.key(), counter.label(), counter.count() + other.floor, counter.error() + other.floor)
+                    : new Counter(counter.key(), counter.label(), counter.count() + match.count(), counter.error() + match.error()));
+        }
+        for (Counter counter : other.counters.values()) {
+            if (!counters.containsKey(counter.key())) {
+                merged.add(new Counter(counter.key(), counter.label(), counter.count() + floor, counter.error() + floor));
+            }
+        }
+        floor += other.floor;
+        counters.clear();
+        keepLargest(merged);
+    }
+
+    private void keepLargest(List<Counter> candidates) {
+        candidates.sort(BY_COUNT);
+        for (int i = 0; i < candidates.size(); i++) {
+            Counter counter = candidates.get(i);
+            if (i < capacity) {
+                counters.put(counter.key(), counter);
+            } else {
+                // Counters dropped here bound every key that is no longer in the sketch
+                floor = Math.max(floor, counter.count());
+                break;
+            }
+        }
+    }
+
+    // The `limit` largest counters, largest first
+    public List<Counter> top(int limit) {
+        return counters.values().stream().sorted(BY_COUNT).limit(limit).toList();
+    }
+
+    // Most times a key that is not in the sketch can have been counted
+    public long floor() {
+        return floor;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(capacity);
+        out.writeLong(floor);
+        out.writeInt(counters.size());
+        for (Counter counter : counters.values()) {
+            out.writeUTF(counter.key());
+            out.writeUTF(counter.label());
+            out.writeLong(counter.count());
+            out.writeLong(counter.error());
+        }
+    }
+
+    public static SpaceSaving readFrom(DataInput in) throws IOException {
+        int capacity = in.readInt();
+        if (capacity < 1) {
+            throw new IOException("Corrupt sketch: capacity " + capacity);
+        }
+        SpaceSaving sketch = new SpaceSaving(capacity);
+        sketch.floor = in.readLong();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            Counter counter = new Counter(in.readUTF(), in.readUTF(), in.readLong(), in.readLong());
+            sketch.counters.put(counter.key(), counter);
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+// Buffers up to a limit. Output that outgrows it is passed on instead: the buffered bytes go to the target
+// first, everything after straight through. A small result stays available as bytes, for caching and an
+// ETag; a large one reaches the target while it is still being written.
+public final class SpillingOutputStream extends OutputStream {
+    private final int limit;
+    private final Supplier<OutputStream> target;
+    private ByteArrayOutputStream buffer;
+    private OutputStream spilled;
+    private long size;
+
+    // The target is only asked for when the limit is exceeded
+    public SpillingOutputStream(int limit, Supplier<OutputStream> target) {
+        this.limit = limit;
+        this.target = target;
+        this.buffer = new ByteArrayOutputStream(Math.min(limit, 8192));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (spilled == null && buffer.size() + len > limit) {
+            spilled = target.get();
+            buffer.writeTo(spilled);
+            buffer = null;
+        }
+        if (spilled != null) {
+            spilled.write(b, off, len);
+        } else {
+            buffer.write(b, off, len);
+        }
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (spilled != null) {
+            spilled.flush();
+        }
+    }
+
+    public boolean isSpilled() {
+        return spilled != null;
+    }
+
+    // Bytes written in total, buffered or not
+    public long size() {
+        return size;
+    }
+
+    // The buffered output; only while it has not spilled
+    public byte[] toByteArray() {
+        if (spilled != null) {
+            throw new IllegalStateException("Output was passed on to the target");
+        }
+        return buffer.toByteArray();
+    }
+}
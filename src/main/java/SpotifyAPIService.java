@@ -1,108 +1,284 @@
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
 import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
 import se.michaelthelin.spotify.model_objects.specification.Artist;
 import se.michaelthelin.spotify.model_objects.specification.Paging;
 import se.michaelthelin.spotify.requests.data.search.simplified.SearchAlbumsRequest;
 import se.michaelthelin.spotify.requests.data.search.simplified.SearchArtistsRequest;
 import org.apache.hc.core5.http.ParseException;
-import se.michaelthelin.spotify.requests.authorization.client_credentials.ClientCredentialsRequest;
-import se.michaelthelin.spotify.model_objects.credentials.ClientCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 public class SpotifyAPIService {
+    private static final Logger LOG = LoggerFactory.getLogger(SpotifyAPIService.class);
+
+
+    // IDs of a batch where some lookups failed or ran out of the budget. Served like any other list, but
+    // a later request may well resolve more, so it must not be kept as a final result (see ResponseCache).
+    public static final class IncompleteIds extends ArrayList<String> {
+        IncompleteIds(List<String> ids) {
+            super(ids);
+        }
+    }
+
+    // Resolved IDs are persisted under -Dspotify.data.dir; "not found" expires sooner than a found ID
+    private static final Path DATA_DIR = Path.of(System.getProperty("spotify.data.dir", "data"));
+    private static final long ID_CACHE_TTL_MILLIS = Long.getLong("spotify.idCache.ttlHours", 30 * 24) * 60 * 60 * 1000;
+    private static final long ID_CACHE_NEGATIVE_TTL_MILLIS = Long.getLong("spotify.idCache.negativeTtlHours", 24) * 60 * 60 * 1000;
+
+    // Lookups of one request run concurrently, capped across all requests by -Dspotify.api.maxConcurrentSearches.
+    // Whatever is not resolved within -Dspotify.api.lookupBudgetMillis is left out of the response.
+    private static final int MAX_CONCURRENT_SEARCHES = Integer.getInteger("spotify.api.maxConcurrentSearches", 8);
+    private static final long LOOKUP_BUDGET_MILLIS = Long.getLong("spotify.api.lookupBudgetMillis", 3000);
+    private static final int MAX_ATTEMPTS = 3;
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final Metrics.Family<Metrics.Histogram> REQUEST_SECONDS = Metrics.histogram(
+            "spotify_api_request_seconds", "Latency of single Spotify Web API requests", "operation");
+    private static final Metrics.Family<Metrics.Counter> REQUEST_ERRORS = Metrics.counter(
+            "spotify_api_errors_total", "Failed Spotify Web API requests, including those retried", "operation", "reason");
+    private static final Metrics.Family<Metrics.Counter> UNRESOLVED = Metrics.counter(
+            "spotify_api_unresolved_total", "IDs left out of a response because their lookup failed or ran over budget",
+            "reason");
 
     private final SpotifyApi spotifyApi;
+    private final SpotifyIdCache idCache;
+    private final AccessTokenManager tokens;
+    private final Semaphore searchPermits = new Semaphore(MAX_CONCURRENT_SEARCHES);
+
+    // Set from a 429's Retry-After, no search starts before it
+    private volatile long throttledUntilMillis;
 
     public SpotifyAPIService(String clientId, String clientSecret) {
-        spotifyApi = new SpotifyApi.Builder()
+        this(clientId, clientSecret, openIdCache());
+    }
+
+    // The API endpoint can be pointed at a local stub with -Dspotify.api.scheme/host/port
+    public SpotifyAPIService(String clientId, String clientSecret, SpotifyIdCache idCache) {
+        SpotifyApi.Builder builder = new SpotifyApi.Builder()
                 .setClientId(clientId)
-                .setClientSecret(clientSecret)
-                .build();
+                .setClientSecret(clientSecret);
+        if (System.getProperty("spotify.api.scheme") != null) {
+            builder.setScheme(System.getProperty("spotify.api.scheme"));
+        }
+        if (System.getProperty("spotify.api.host") != null) {
+            builder.setHost(System.getProperty("spotify.api.host"));
+        }
+        if (Integer.getInteger("spotify.api.port") != null) {
+            builder.setPort(Integer.getInteger("spotify.api.port"));
+        }
+        spotifyApi = builder.build();
+        this.idCache = idCache;
+        if (idCache != null) {
+            Metrics.registerCache("spotify-ids", idCache::stats);
+        }
 
-        try {
-            String accessToken = getAccessToken();
-            spotifyApi.setAccessToken(accessToken);
-        } catch (IOException | SpotifyWebApiException | ParseException e) {
-            throw new RuntimeException("Error getting access token", e);
+        // A fixed -Dspotify.api.accessToken skips the client credentials flow, e.g. against a stub.
+        // Otherwise the token is fetched in the background and only searches wait for it.
+        String accessToken = System.getProperty("spotify.api.accessToken");
+        if (accessToken != null) {
+            tokens = AccessTokenManager.fixed(spotifyApi, accessToken);
+        } else {
+            tokens = new AccessTokenManager(spotifyApi);
+            tokens.start();
         }
     }
 
-    private String getAccessToken() throws IOException, SpotifyWebApiException, ParseException {
-        ClientCredentialsRequest clientCredentialsRequest = spotifyApi.clientCredentials().build();
-        ClientCredentials credentials = clientCredentialsRequest.execute();
-        return credentials.getAccessToken();
+    // For stand-ins that override the lookups, e.g. the offline benchmarks: no token, no ID cache, no network
+    SpotifyAPIService() {
+        spotifyApi = new SpotifyApi.Builder().build();
+        idCache = null;
+        tokens = AccessTokenManager.fixed(spotifyApi, "offline");
     }
 
-    public List<String> getAlbumUris(List<Map.Entry<String, Long>> albumArtistPairs) {
-        List<String> albumUris = new ArrayList<>();
+    private static SpotifyIdCache openIdCache() {
+        try {
+            return SpotifyIdCache.open(DATA_DIR.resolve("spotify-ids.log"), ID_CACHE_TTL_MILLIS, ID_CACHE_NEGATIVE_TTL_MILLIS);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening Spotify ID cache", e);
+        }
+    }
+
+    // Completes on a search thread, so the caller's thread is free while the lookups run
+    public CompletableFuture<List<String>> getAlbumUris(List<Map.Entry<String, Long>> albumArtistPairs) {
+        List<String[]> albums = new ArrayList<>();
         for (Map.Entry<String, Long> entry : albumArtistPairs) {
             String[] parts = entry.getKey().split(" - ");
             if (parts.length == 2) {
-                String albumName = parts[0];
-                String artistName = parts[1];
-                String albumUri = searchAlbumUri(albumName, artistName);
-                if (albumUri != null) {
-                    albumUris.add(albumUri);
-                }
+                albums.add(parts);
             }
         }
-        return albumUris;
+        return CompletableFuture.supplyAsync(() -> resolveAll(albums, parts -> searchAlbumUri(parts[0], parts[1])),
+                SEARCH_EXECUTOR);
     }
 
     private String searchAlbumUri(String albumName, String artistName) {
-        String q = "album:" + albumName + " artist:" + artistName;
-        SearchAlbumsRequest searchAlbumsRequest = spotifyApi.searchAlbums(q)
-                .limit(1)
-                .build();
-
         try {
-            final Paging<AlbumSimplified> albumSimplifiedPaging = searchAlbumsRequest.execute();
+            return idCache.resolve("album:" + albumName + "\t" + artistName, () -> {
+                String q = "album:" + albumName + " artist:" + artistName;
+                final Paging<AlbumSimplified> albumSimplifiedPaging = execute("search-album", () -> {
+                    SearchAlbumsRequest searchAlbumsRequest = spotifyApi.searchAlbums(q)
+                            .limit(1)
+                            .build();
+                    return searchAlbumsRequest.execute();
+                });
 
-            if (albumSimplifiedPaging.getTotal() > 0) {
-                return albumSimplifiedPaging.getItems()[0].getId();
-            } else {
-                System.out.println("Album not found: " + albumName + " - " + artistName);
-                return null;
-            }
-        } catch (IOException | SpotifyWebApiException | ParseException e) {
-            System.out.println("Error searching for album: " + e.getMessage());
-            return null;
+                if (albumSimplifiedPaging.getTotal() > 0) {
+                    return albumSimplifiedPaging.getItems()[0].getId();
+                } else {
+                    LOG.info("Album not found: {} - {}", albumName, artistName);
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Error searching for album: {}", e.getMessage());
+            throw new UncheckedIOException(e);
         }
     }
 
-    public List<String> getArtistIds(List<String> artistNames) {
-        List<String> artistIds = new ArrayList<>();
-        for (String artistName : artistNames) {
-            String artistId = searchArtistId(artistName);
-            if (artistId != null) {
-                artistIds.add(artistId);
+    public CompletableFuture<List<String>> getArtistIds(List<String> artistNames) {
+        return CompletableFuture.supplyAsync(() -> resolveAll(artistNames, this::searchArtistId), SEARCH_EXECUTOR);
+    }
+
+    // Resolves every key on its own virtual thread and returns the IDs found, in key order. Lookups still
+    // running when the budget runs out are skipped here but not cancelled, so their results reach the ID
+    // cache for the next request. Duplicate keys in flight share one search through the cache. If any
+    // lookup failed or was skipped, the list is an IncompleteIds.
+    private <T> List<String> resolveAll(List<T> keys, Function<T, String> resolver) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOOKUP_BUDGET_MILLIS);
+        List<Future<String>> pending = new ArrayList<>();
+        for (T key : keys) {
+            pending.add(SEARCH_EXECUTOR.submit(() -> resolver.apply(key)));
+        }
+
+        List<String> ids = new ArrayList<>();
+        int unresolved = 0;
+        for (Future<String> lookup : pending) {
+            try {
+                String id = lookup.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (id != null) {
+                    ids.add(id);
+                }
+            } catch (TimeoutException e) {
+                UNRESOLVED.labels("timeout").inc();
+                unresolved++;
+            } catch (ExecutionException e) {
+                // Search errors were already logged with their album or artist
+                if (!(e.getCause() instanceof UncheckedIOException)) {
+                    LOG.warn("Error resolving Spotify ID", e.getCause());
+                }
+                UNRESOLVED.labels("error").inc();
+                unresolved++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                UNRESOLVED.labels("interrupted").inc();
+                unresolved++;
+                break;
             }
         }
-        return artistIds;
+        if (unresolved > 0) {
+            LOG.info("Lookups failed or over budget, {} of {} IDs left out", unresolved, keys.size());
+            return new IncompleteIds(ids);
+        }
+        return ids;
     }
 
     private String searchArtistId(String artistName) {
-        SearchArtistsRequest searchArtistsRequest = spotifyApi.searchArtists(artistName)
-                .limit(1)
-                .build();
-
         try {
-            final Paging<Artist> artistPaging = searchArtistsRequest.execute();
+            return idCache.resolve("artist:" + artistName, () -> {
+                final Paging<Artist> artistPaging = execute("search-artist", () -> {
+                    SearchArtistsRequest searchArtistsRequest = spotifyApi.searchArtists(artistName)
+                            .limit(1)
+                            .build();
+                    return searchArtistsRequest.execute();
+                });
 
-            if (artistPaging.getTotal() > 0) {
-                return artistPaging.getItems()[0].getId();
-            } else {
-                System.out.println("Artist not found: " + artistName);
-                return null;
+                if (artistPaging.getTotal() > 0) {
+                    return artistPaging.getItems()[0].getId();
+                } else {
+                    LOG.info("Artist not found: {}", artistName);
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Error searching for artist: {}", e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Request<T> {
+        T execute() throws IOException, SpotifyWebApiException, ParseException;
+    }
+
+    // Failed requests surface as IOException, so the ID cache does not mistake them for "not found".
+    // A 429 pauses all searches for its Retry-After (or an exponential backoff) before trying again, a 401
+    // is retried once with a fresh token. The request is built inside "request" so a retry picks up the new token.
+    // Each attempt is timed and each failure counted under the operation, e.g. "search-artist".
+    private <T> T execute(String operation, Request<T> request) throws IOException {
+        boolean reauthorized = false;
+        for (int attempt = 1; ; attempt++) {
+            String accessToken = tokens.accessToken();
+            try {
+                waitForThrottle();
+                searchPermits.acquire();
+                long start = System.nanoTime();
+                try {
+                    return request.execute();
+                } finally {
+                    REQUEST_SECONDS.labels(operation).observeSince(start);
+                    searchPermits.release();
+                }
+            } catch (UnauthorizedException e) {
+                REQUEST_ERRORS.labels(operation, "unauthorized").inc();
+                if (reauthorized) {
+                    throw new IOException("Access token rejected: " + e.getMessage(), e);
+                }
+                reauthorized = true;
+                attempt--;
+                tokens.invalidate(accessToken);
+            } catch (TooManyRequestsException e) {
+                REQUEST_ERRORS.labels(operation, "rate-limited").inc();
+                if (attempt == MAX_ATTEMPTS) {
+                    throw new IOException("Rate limited after " + attempt + " attempts", e);
+                }
+                long waitMillis = e.getRetryAfter() > 0 ? e.getRetryAfter() * 1000L : 500L << attempt;
+                throttledUntilMillis = Math.max(throttledUntilMillis, System.currentTimeMillis() + waitMillis);
+                LOG.info("Rate limited by Spotify, retrying in {} ms", waitMillis);
+            } catch (SpotifyWebApiException | ParseException e) {
+                REQUEST_ERRORS.labels(operation, "api-error").inc();
+                throw new IOException(e.getMessage(), e);
+            } catch (IOException e) {
+                REQUEST_ERRORS.labels(operation, "io").inc();
+                throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a search slot", e);
             }
-        } catch (IOException | SpotifyWebApiException | ParseException e) {
-            System.out.println("Error searching for artist: " + e.getMessage());
-            return null;
         }
     }
-}
\ No newline at end of file
+
+    private void waitForThrottle() throws InterruptedException {
+        long waitMillis;
+        while ((waitMillis = throttledUntilMillis - System.currentTimeMillis()) > 0) {
+            Thread.sleep(waitMillis);
+        }
+    }
+}
@@ -1,38 +1,187 @@
 import io.javalin.Javalin;
+import io.javalin.compression.Brotli;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+import io.javalin.config.SizeUnit;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
 import io.javalin.http.UploadedFile;
-import io.javalin.json.JsonMapper;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Type;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import io.javalin.plugin.bundled.CorsPluginConfig;
-import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SpotifyDataController {
+    private static final Logger LOG = LoggerFactory.getLogger(SpotifyDataController.class);
+
     private final Javalin app;
     SpotifyAPIService api;
-    private final Map<String, List<StreamingHistoryEntry>> cache;
+    private final BoundedCache<String, StreamingHistoryDataset> cache;
+    private final ResponseCache responses;
+    // Shared with the other nodes, null when there is none
+    private final ExternalCacheTier tier;
+    private final GsonJsonMapper jsonMapper = new GsonJsonMapper(createGson());
+
+    // Heap budget and idle expiry for parsed uploads, overridable with -Dspotify.cache.maxBytes / -Dspotify.cache.idleTtlMinutes
+    private static final long CACHE_MAX_BYTES = Long.getLong("spotify.cache.maxBytes", 512L * 1024 * 1024);
+    private static final long CACHE_IDLE_TTL_MINUTES = Long.getLong("spotify.cache.idleTtlMinutes", 30);
+    // Budget for serialized analysis results, -Dspotify.responseCache.maxBytes; same idle expiry as datasets
+    private static final long RESPONSE_CACHE_MAX_BYTES = Long.getLong("spotify.responseCache.maxBytes", 64L * 1024 * 1024);
+
+    // Analysis results are serialized into a buffer of -Dspotify.response.bufferBytes. Results that fit are
+    // cached and sent with an ETag. Larger ones go to the client while they are being serialized, uncached,
+    // so their first bytes do not wait for the last row. That writing happens on a virtual thread, so a slow
+    // client does not hold an analysis worker.
+    private static final int RESPONSE_BUFFER_BYTES = Integer.getInteger("spotify.response.bufferBytes", 256 * 1024);
+    private static final ExecutorService RESPONSE_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    // Responses are compressed with brotli (when brotli4j is available) or gzip, as the client accepts,
+    // once their first write reaches -Dspotify.compression.minBytes
+    private static final int COMPRESSION_MIN_BYTES = Integer.getInteger("spotify.compression.minBytes", 1500);
+    // Marks a result whose body was already written while it was serialized
+    private static final Object STREAMED = new Object();
+
+    // Requests are handled on virtual threads unless -Dspotify.http.virtualThreads=false. Parsing uploads and
+    // running analyses use two bounded pools, so slow uploads cannot hold up queries on stored datasets. Once
+    // a pool has its queue depth of tasks waiting, further requests for it get a 503 instead of piling up.
+    private static final boolean VIRTUAL_THREADS =
+            Boolean.parseBoolean(System.getProperty("spotify.http.virtualThreads", "true"));
+    private static final int UPLOAD_THREADS = Integer.getInteger("spotify.upload.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int UPLOAD_QUEUE_DEPTH = Integer.getInteger("spotify.upload.queueDepth", 8);
+    private static final int ANALYSIS_THREADS =
+            Integer.getInteger("spotify.analysis.threads", Runtime.getRuntime().availableProcessors());
+    private static final int ANALYSIS_QUEUE_DEPTH = Integer.getInteger("spotify.analysis.queueDepth", 64);
+
+    private final ExecutorService uploadExecutor = boundedExecutor("upload-worker", UPLOAD_THREADS, UPLOAD_QUEUE_DEPTH);
+    private final ExecutorService analysisExecutor =
+            boundedExecutor("analysis-worker", ANALYSIS_THREADS, ANALYSIS_QUEUE_DEPTH);
+
+    // Uploads above -Dspotify.upload.maxBytes are refused with 413. Parts above 1 MB are spilled by Jetty to
+    // -Dspotify.upload.spillDir instead of being held on the heap.
+    private static final long UPLOAD_MAX_BYTES = Long.getLong("spotify.upload.maxBytes", 1024L * 1024 * 1024);
+    private static final String UPLOAD_SPILL_DIR = System.getProperty("spotify.upload.spillDir",
+            Path.of(System.getProperty("java.io.tmpdir"), "spotify-uploads").toString());
+    private static final int UPLOAD_IN_MEMORY_BYTES = 1024 * 1024;
+
+    // Parsed uploads are also written as snapshots under -Dspotify.data.dir, so a dataset that was evicted from
+    // the cache, or uploaded before a restart, is mapped back in instead of needing another upload
+    private static final Path SNAPSHOT_DIR = Path.of(System.getProperty("spotify.data.dir", "data"), "datasets");
+    // Base64url SHA-256, anything else is not a dataset ID and never touches the file system
+    private static final Pattern DATASET_ID = Pattern.compile("[A-Za-z0-9_-]{43}");
+
+    // Datasets and results are shared with other nodes through a FileSystemCacheTier in -Dspotify.tier.dir,
+    // a directory all of them mount; off when unset. A node holding the lock to parse an upload or append
+    // to a dataset for longer than -Dspotify.tier.lockTtlSeconds is taken to have died.
+    private static final String TIER_DIR = System.getProperty("spotify.tier.dir");
+    private static final long TIER_LOCK_TTL_MILLIS = Long.getLong("spotify.tier.lockTtlSeconds", 600) * 1000;
+
+    // Waiting for another append to a dataset, or for another node's lock or snapshot, happens on virtual
+    // threads, so the upload pool's threads stay free for parsing
+    private static final ExecutorService WAIT_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    // One lock per dataset appended to since startup, so appends to different datasets do not wait on each other
+    private final Map<String, ReentrantLock> appendLocks = new ConcurrentHashMap<>();
+    // Parses of uploads under way, by signature(), for copies of the same upload arriving together
+    private final Map<String, CompletableFuture<ParsedUpload>> parsing = new ConcurrentHashMap<>();
+    // Dataset IDs of the most recent uploads by signature(), so an upload sent again is only hashed
+    private static final int RECENT_UPLOADS = 1024;
+    private final Map<String, String> recentUploads = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > RECENT_UPLOADS;
+                }
+            });
+
+    private static final Metrics.Family<Metrics.Histogram> REQUEST_SECONDS = Metrics.histogram(
+            "spotify_http_request_seconds", "Time from request to response, per route", "method", "route", "status");
+    private static final Metrics.Family<Metrics.Histogram> HASH_SECONDS = Metrics.histogram(
+            "spotify_upload_hash_seconds", "Time spent hashing an upload into its dataset ID");
+    private static final Metrics.Family<Metrics.Counter> UPLOAD_BYTES = Metrics.counter(
+            "spotify_upload_bytes_total", "Bytes of uploaded files");
+    private static final Metrics.Family<Metrics.Histogram> JSON_SECONDS = Metrics.histogram(
+            "spotify_json_serialize_seconds",
+            "Time to serialize an analysis result; for streamed results this includes sending it", "analysis", "mode");
+    private static final Metrics.Family<Metrics.Counter> JSON_BYTES = Metrics.counter(
+            "spotify_json_bytes_total", "Bytes of serialized analysis results", "analysis");
+
+    private record ParsedUpload(String id, StreamingHistoryDataset dataset) {
+    }
 
-    public SpotifyDataController() {
+    @FunctionalInterface
+    private interface Task<T> {
+        T run() throws Exception;
+    }
+
+    public SpotifyDataController() throws IOException {
+        this(TIER_DIR == null ? null : new FileSystemCacheTier(Path.of(TIER_DIR), TIER_LOCK_TTL_MILLIS));
+    }
+
+    // Any other ExternalCacheTier, e.g. one backed by a key-value store, plugs in here
+    public SpotifyDataController(ExternalCacheTier tier) {
         this.api = new SpotifyAPIService("07747c1af7e84fad9f7f388f0af8d068", "c614891da8834905b108304928a4525c");
-        this.cache = new ConcurrentHashMap<>();
+        this.tier = tier;
+        this.responses = new ResponseCache(RESPONSE_CACHE_MAX_BYTES, CACHE_IDLE_TTL_MINUTES * 60 * 1000, tier);
+        this.cache = new BoundedCache<>(CACHE_MAX_BYTES, CACHE_IDLE_TTL_MINUTES * 60 * 1000,
+                StreamingHistoryDataset::estimatedRetainedBytes);
+        Metrics.registerCache("datasets", cache::stats);
+        Metrics.registerCache("responses", responses::stats);
         this.app = Javalin.create(config -> {
                     config.staticFiles.add(staticFiles -> {
                         staticFiles.directory = "/public";
                         staticFiles.location = io.javalin.http.staticfiles.Location.CLASSPATH;
                     });
-                    config.jsonMapper(createGsonMapper());
+                    config.jsonMapper(jsonMapper);
+                    config.http.customCompression(compression());
+                    // Called once the response is complete, also for requests answered asynchronously
+                    config.requestLogger.http((ctx, executionTimeMs) -> REQUEST_SECONDS
+                            .labels(ctx.method().name(), route(ctx), Integer.toString(ctx.statusCode()))
+                            .observeNanos((long) (executionTimeMs * 1_000_000)));
+                    config.useVirtualThreads = VIRTUAL_THREADS;
+                    config.jetty.multipartConfig.cacheDirectory(UPLOAD_SPILL_DIR);
+                    config.jetty.multipartConfig.maxInMemoryFileSize(UPLOAD_IN_MEMORY_BYTES, SizeUnit.BYTES);
+                    config.jetty.multipartConfig.maxFileSize(UPLOAD_MAX_BYTES, SizeUnit.BYTES);
+                    config.jetty.multipartConfig.maxTotalRequestSize(UPLOAD_MAX_BYTES, SizeUnit.BYTES);
                     // Add CORS configuration:
                     config.bundledPlugins.enableCors(cors -> {
                         cors.addRule(CorsPluginConfig.CorsRule::anyHost);
@@ -57,7 +206,40 @@ public class SpotifyDataController {
         app.post("/analyze/top-albums/month/{month}", this::getTopAlbumsByMonth);
         app.post("/analyze/top-albums/year/{year}/month/{month}", this::getTopAlbumsByYearAndMonth);
         app.post("/analyze/played-songs/date/{date}", this::getPlayedSongs);
+        app.post("/analyze/plays", this::getPlaysInRange);
+        app.post("/analyze/plays/hour/{hour}", this::getPlaysInRange);
+        app.post("/analyze/sessions/around/{timestamp}", this::getSessionsAround);
+        app.post("/analyze/listening-habits", this::getListeningHabits);
         app.post("/analyze/explore", this::getExploreStatistics);
+        app.post("/analyze/dashboard", this::getDashboard);
+
+        // Upload once, then query the stored dataset by ID
+        app.post("/datasets", this::createDataset);
+        app.post("/datasets/{datasetId}/append", this::appendToDataset);
+        app.get("/datasets/{datasetId}/analyze/top-songs", this::getTopSongs);
+        app.get("/datasets/{datasetId}/analyze/top-songs/year/{year}", this::getTopSongsByYear);
+        app.get("/datasets/{datasetId}/analyze/top-songs/month/{month}", this::getTopSongsByMonth);
+        app.get("/datasets/{datasetId}/analyze/top-songs/year/{year}/month/{month}", this::getTopSongsByYearAndMonth);
+        app.get("/datasets/{datasetId}/analyze/top-artists", this::getTopArtists);
+        app.get("/datasets/{datasetId}/analyze/top-artists/year/{year}", this::getTopArtistsByYear);
+        app.get("/datasets/{datasetId}/analyze/top-artists/month/{month}", this::getTopArtistsByMonth);
+        app.get("/datasets/{datasetId}/analyze/top-artists/year/{year}/month/{month}", this::getTopArtistsByYearAndMonth);
+        app.get("/datasets/{datasetId}/analyze/top-albums", this::getTopAlbums);
+        app.get("/datasets/{datasetId}/analyze/top-albums/year/{year}", this::getTopAlbumsByYear);
+        app.get("/datasets/{datasetId}/analyze/top-albums/month/{month}", this::getTopAlbumsByMonth);
+        app.get("/datasets/{datasetId}/analyze/top-albums/year/{year}/month/{month}", this::getTopAlbumsByYearAndMonth);
+        app.get("/datasets/{datasetId}/analyze/played-songs/date/{date}", this::getPlayedSongs);
+        app.get("/datasets/{datasetId}/analyze/plays", this::getPlaysInRange);
+        app.get("/datasets/{datasetId}/analyze/plays/hour/{hour}", this::getPlaysInRange);
+        app.get("/datasets/{datasetId}/analyze/sessions/around/{timestamp}", this::getSessionsAround);
+        app.get("/datasets/{datasetId}/analyze/listening-habits", this::getListeningHabits);
+        app.get("/datasets/{datasetId}/analyze/explore", this::getExploreStatistics);
+        app.get("/datasets/{datasetId}/analyze/dashboard", this::getDashboard);
+
+        app.get("/cache/stats", ctx -> ctx.json(cache.stats()));
+        app.get("/cache/responses/stats", ctx -> ctx.json(responses.stats()));
+        app.get("/stats/weekly", this::getWeeklyStats);
+        app.get("/metrics", ctx -> ctx.contentType("text/plain; version=0.0.4; charset=utf-8").result(Metrics.scrape()));
     }
 
     // Top Songs
@@ -161,77 +343,697 @@ public class SpotifyDataController {
         }
     }
 
+    // Plays in time order, e.g. /analyze/plays?from=2023-01-01&to=2023-01-31&limit=50, or only those in one
+    // hour of the day (UTC) via /analyze/plays/hour/{hour}
+    private void getPlaysInRange(Context ctx) {
+        PlaysInRangeAnalysis analysis;
+        try {
+            Integer hour = ctx.pathParamMap().containsKey("hour") ? Integer.parseInt(ctx.pathParam("hour")) : null;
+            Integer limit = ctx.queryParam("limit") == null ? null : Integer.parseInt(ctx.queryParam("limit"));
+            analysis = new PlaysInRangeAnalysis(ctx.queryParam("from"), ctx.queryParam("to"), hour, limit);
+        } catch (DateTimeParseException e) {
+            ctx.status(400).result("Invalid date format, expected yyyy-MM-dd");
+            return;
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        handleAnalysisRequest(ctx, analysis, null, null, null);
+    }
+
+    // Listening session at a timestamp plus its neighbours, e.g. /analyze/sessions/around/2023-06-01T20:00:00Z?gapMinutes=20
+    private void getSessionsAround(Context ctx) {
+        SessionsAroundAnalysis analysis;
+        try {
+            Integer gapMinutes = ctx.queryParam("gapMinutes") == null ? null : Integer.parseInt(ctx.queryParam("gapMinutes"));
+            analysis = new SessionsAroundAnalysis(ctx.pathParam("timestamp"), gapMinutes);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        handleAnalysisRequest(ctx, analysis, null, null, null);
+    }
+
+    // Sessions, skips and completion over the whole history, e.g. /analyze/listening-habits?gapMinutes=20&shortPlaySeconds=10
+    private void getListeningHabits(Context ctx) {
+        ListeningHabitsAnalysis analysis;
+        try {
+            analysis = new ListeningHabitsAnalysis(intQueryParam(ctx, "gapMinutes"),
+                    intQueryParam(ctx, "shortPlaySeconds"), intQueryParam(ctx, "minPlays"), intQueryParam(ctx, "limit"));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        handleAnalysisRequest(ctx, analysis, null, null, null);
+    }
+
+    private static Integer intQueryParam(Context ctx, String name) {
+        String value = ctx.queryParam(name);
+        return value == null ? null : Integer.parseInt(value);
+    }
+
+    // ?approximate=true only estimates distinct counts over entry lists; stored datasets count them exactly
+    // from their dictionaries
     private void getExploreStatistics(Context ctx) {
-        handleAnalysisRequest(ctx, new ExploreStatisticsAnalysis(), null, null, null);
+        boolean approximate = Boolean.parseBoolean(ctx.queryParam("approximate"));
+        handleAnalysisRequest(ctx, new ExploreStatisticsAnalysis(approximate), null, null, null);
+    }
+
+    // Plays, distinct counts and top artists and songs of one week across every stored dataset, merged from
+    // their weekly sketches, e.g. /stats/weekly?date=2024-06-05&limit=20; the current week by default
+    private void getWeeklyStats(Context ctx) {
+        LocalDate date;
+        int limit;
+        try {
+            date = ctx.queryParam("date") == null ? LocalDate.now(ZoneOffset.UTC) : LocalDate.parse(ctx.queryParam("date"));
+            limit = ctx.queryParam("limit") == null ? 10 : Integer.parseInt(ctx.queryParam("limit"));
+        } catch (DateTimeParseException e) {
+            ctx.status(400).result("Invalid date format, expected yyyy-MM-dd");
+            return;
+        } catch (NumberFormatException e) {
+            ctx.status(400).result("Invalid limit format");
+            return;
+        }
+        if (limit < 0 || limit > 100) {
+            ctx.status(400).result("Limit must be between 0 and 100");
+            return;
+        }
+        respond(ctx, submit(analysisExecutor, () -> weeklyStats(date, limit)), result -> ctx.json(result));
+    }
+
+    private WeeklySketches.Stats weeklyStats(LocalDate date, int limit) throws IOException {
+        List<Path> snapshots;
+        try (Stream<Path> files = Files.list(SNAPSHOT_DIR)) {
+            snapshots = files.filter(file -> file.getFileName().toString().endsWith(".snapshot")).toList();
+        } catch (NoSuchFileException e) {
+            snapshots = List.of();
+        }
+        List<Path> sketchFiles = new ArrayList<>(snapshots.size());
+        for (Path snapshot : snapshots) {
+            String datasetId = snapshot.getFileName().toString().replace(".snapshot", "");
+            Path sketches = sketchPath(datasetId);
+            if (!Files.exists(sketches)) {
+                try {
+                    // Stored before sketches were written, built once here
+                    StreamingHistoryDataset dataset = storedDataset(datasetId);
+                    if (dataset == null) {
+                        continue;
+                    }
+                    WeeklySketches.write(dataset, sketches);
+                } catch (IOException e) {
+                    Metrics.ERRORS.labels("sketch-write").inc();
+                    LOG.warn("Error writing sketches of {}: {}", datasetId, e.getMessage());
+                    continue;
+                }
+            }
+            sketchFiles.add(sketches);
+        }
+        return WeeklySketches.stats(sketchFiles, date, limit);
+    }
+
+    // Several analyses in one response, e.g. ?analyses=top-songs,explore&year=2023; all but played-songs by
+    // default. Year and month filter the Top* analyses only, explore and listening-habits cover all plays,
+    // and the response's "filters" entry says which filters each result was computed with.
+    private void getDashboard(Context ctx) {
+        Integer year;
+        Integer month;
+        try {
+            year = ctx.queryParam("year") == null ? null : Integer.parseInt(ctx.queryParam("year"));
+            month = ctx.queryParam("month") == null ? null : Integer.parseInt(ctx.queryParam("month"));
+        } catch (NumberFormatException e) {
+            ctx.status(400).result("Invalid year or month format");
+            return;
+        }
+
+        String date = ctx.queryParam("date");
+        String requested = ctx.queryParam("analyses");
+        List<String> names = requested == null || requested.isBlank()
+                ? List.of()
+                : Arrays.stream(requested.split(",")).map(String::trim).filter(name -> !name.isEmpty()).toList();
+
+        DashboardAnalysis analysis;
+        try {
+            analysis = new DashboardAnalysis(names, year, month, date);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        handleAnalysisRequest(ctx, analysis, year, month, date);
+    }
+
+    private void createDataset(Context ctx) {
+        List<UploadedFile> files = uploadedFiles(ctx);
+        if (files == null) {
+            return;
+        }
+
+        CompletableFuture<Map<String, Object>> created = loadDataset(files).thenApply(upload -> Map.of(
+                "id", upload.id(),
+                "version", upload.dataset().version(),
+                "plays", upload.dataset().size()
+        ));
+        respond(ctx, created, result -> ctx.status(201).json(result));
+    }
+
+    // Adds the plays of newer export files to a stored dataset, skipping plays it already has. The dataset
+    // keeps its ID and moves to the next version; appends to one dataset are applied one at a time.
+    private void appendToDataset(Context ctx) {
+        String datasetId = ctx.pathParam("datasetId");
+        try {
+            if (storedDataset(datasetId) == null) {
+                ctx.status(404).result("Unknown dataset, upload it again via /datasets");
+                return;
+            }
+        } catch (IOException e) {
+            Metrics.ERRORS.labels("snapshot-read").inc();
+            LOG.warn("Error reading snapshot of {}: {}", datasetId, e.getMessage());
+            ctx.status(404).result("Unknown dataset, upload it again via /datasets");
+            return;
+        }
+        List<UploadedFile> files = uploadedFiles(ctx);
+        if (files == null) {
+            return;
+        }
+
+        CompletableFuture<Map<String, Object>> appended = submit(uploadExecutor, () -> {
+            List<StreamingHistoryDataset> parts = new ArrayList<>();
+            for (UploadedFile file : sortedByName(files)) {
+                try (InputStream content = file.content()) {
+                    parts.add(SpotifyDataService.parseUpload(content, file.size()));
+                }
+            }
+            return StreamingHistoryDataset.concat(parts);
+        }).thenCompose(added -> submit(WAIT_EXECUTOR, () -> {
+            // One append to the dataset at a time in this process, and across nodes while holding the tier's lock
+            ReentrantLock lock = appendLocks.computeIfAbsent(datasetId, id -> new ReentrantLock());
+            lock.lock();
+            try (ExternalCacheTier.Lock ignored = tier == null ? null
+                    : tier.lock("append/" + datasetId, TIER_LOCK_TTL_MILLIS)) {
+                return appendParsed(datasetId, added);
+            } finally {
+                lock.unlock();
+            }
+        }));
+        respond(ctx, appended, result -> ctx.json(result));
+    }
+
+    private Map<String, Object> appendParsed(String datasetId, StreamingHistoryDataset added) throws IOException {
+        StreamingHistoryDataset current = latestDataset(datasetId);
+        if (current == null) {
+            throw new IOException("Dataset " + datasetId + " is no longer stored");
+        }
+        StreamingHistoryDataset next = current.append(added);
+        if (next != current) {
+            // Snapshot first, so a reload after eviction never brings back the previous version
+            writeSnapshot(datasetId, next);
+            cache.put(datasetId, next);
+            LOG.info("Appended {} plays to {}", next.size() - current.size(), datasetId);
+        }
+        return Map.of(
+                "id", datasetId,
+                "version", next.version(),
+                "plays", next.size(),
+                "added", next.size() - current.size()
+        );
     }
 
     private void handleAnalysisRequest(Context ctx, Analysis analysis, Integer year, Integer month, String date) {
-        UploadedFile file = ctx.uploadedFile("file");
-        if (file == null) {
-            ctx.status(400).result("No file uploaded");
+        String request = analysisRequest(ctx);
+        CompletableFuture<ParsedUpload> dataset;
+        if (ctx.pathParamMap().containsKey("datasetId")) {
+            // Dataset was uploaded earlier, only the analysis is left to do
+            String datasetId = ctx.pathParam("datasetId");
+            StreamingHistoryDataset stored;
+            try {
+                stored = storedDataset(datasetId);
+            } catch (IOException e) {
+                Metrics.ERRORS.labels("snapshot-read").inc();
+                LOG.warn("Error reading snapshot of {}: {}", datasetId, e.getMessage());
+                stored = null;
+            }
+            if (stored == null) {
+                ctx.status(404).result("Unknown dataset, upload it again via /datasets");
+                return;
+            }
+            dataset = CompletableFuture.completedFuture(new ParsedUpload(datasetId, stored));
+        } else {
+            List<UploadedFile> files = uploadedFiles(ctx);
+            if (files == null) {
+                return;
+            }
+            dataset = loadDataset(files);
+        }
+
+        // A stored dataset's cached result is answered without involving any pool, a lookup and a byte copy
+        CompletableFuture<Object> result = dataset.thenCompose(upload -> {
+            String key = ResponseCache.key(upload.id(), upload.dataset().version(), request);
+            ResponseCache.Response cached = responses.get(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            return submit(analysisExecutor, () -> SpotifyDataService.analyzeData(upload.dataset(), analysis, api))
+                    .thenCompose(Analysis::asFuture)
+                    .thenApplyAsync(value -> value == null ? null : serialize(ctx, key, analysis, value),
+                            RESPONSE_EXECUTOR);
+        });
+        respond(ctx, result, value -> {
+            if (value instanceof ResponseCache.Response response) {
+                send(ctx, response);
+            } else if (value != STREAMED) {
+                ctx.status(500).result("Error processing request");
+            }
+        });
+    }
+
+    // The result as a cacheable Response, or STREAMED once it outgrew the buffer and went out as it was written
+    private Object serialize(Context ctx, String key, Analysis analysis, Object value) {
+        long start = System.nanoTime();
+        SpillingOutputStream out = new SpillingOutputStream(RESPONSE_BUFFER_BYTES, () -> {
+            // Headers go out with the first bytes; the content type also lets Javalin compress the body
+            ctx.status(200).contentType("application/json").header("Vary", "Accept-Encoding");
+            return ctx.outputStream();
+        });
+        try {
+            jsonMapper.writeJson(value, value.getClass(), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String name = analysis.getClass().getSimpleName();
+        JSON_SECONDS.labels(name, out.isSpilled() ? "streamed" : "buffered").observeSince(start);
+        JSON_BYTES.labels(name).add(out.size());
+        return out.isSpilled() ? STREAMED : responses.put(key, value, out.toByteArray());
+    }
+
+    // The analysis and its parameters as requested, the same for an upload as for a stored dataset:
+    // the path after /datasets/{datasetId} plus the query parameters in a fixed order
+    private static String analysisRequest(Context ctx) {
+        String path = ctx.path();
+        if (ctx.pathParamMap().containsKey("datasetId")) {
+            path = path.substring(path.indexOf('/', "/datasets/".length()));
+        }
+        return path + "?" + new TreeMap<>(ctx.queryParamMap());
+    }
+
+    // Bodies large enough to be compressed get a weak ETag: the bytes on the wire depend on the negotiated
+    // encoding, while If-None-Match only needs the content to be the same
+    private static void send(Context ctx, ResponseCache.Response response) {
+        if (response.json().length >= COMPRESSION_MIN_BYTES) {
+            ctx.header("ETag", "W/" + response.etag()).header("Vary", "Accept-Encoding");
+        } else {
+            ctx.header("ETag", response.etag());
+        }
+        if ((ctx.method() == HandlerType.GET || ctx.method() == HandlerType.HEAD)
+                && ResponseCache.matches(ctx.header("If-None-Match"), response.etag())) {
+            ctx.status(304);
             return;
         }
+        ctx.contentType("application/json").result(response.json());
+    }
+
+    // The route template, e.g. /datasets/{datasetId}/analyze/top-songs, so IDs do not become label values
+    private static String route(Context ctx) {
+        String path = ctx.endpointHandlerPath();
+        // Javalin puts a message there when no endpoint matched, e.g. for a 404
+        return path.startsWith("/") ? path : "unmatched";
+    }
 
+    // The task's result, or a future failed with RejectedExecutionException if the pool's queue is full
+    private static <T> CompletableFuture<T> submit(ExecutorService executor, Task<T> task) {
+        CompletableFuture<T> work = new CompletableFuture<>();
         try {
-            // Generate a cache key based on file content
-            String cacheKey = getCacheKey(file.content());
+            executor.execute(() -> {
+                try {
+                    work.complete(task.run());
+                } catch (Throwable e) {
+                    // Errors too (e.g. OutOfMemoryError), or the request would never be answered
+                    work.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            work.completeExceptionally(e);
+        }
+        return work;
+    }
+
+    // Responds once the work (and any Spotify lookups its result still waits on) completes. The request
+    // thread is released in the meantime.
+    private void respond(Context ctx, CompletableFuture<?> work, Consumer<Object> respond) {
+        ctx.future(() -> work
+                .thenCompose(Analysis::asFuture)
+                .thenAccept(respond)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (ctx.res().isCommitted()) {
+                        // Failed while streaming: the status is out already, the client sees a truncated body
+                        Metrics.ERRORS.labels("response-stream").inc();
+                        LOG.warn("Error after the response was committed: {}", cause.toString());
+                    } else if (cause instanceof RejectedExecutionException) {
+                        ctx.status(503).header("Retry-After", "1").result("Server busy, try again shortly");
+                    } else {
+                        Metrics.ERRORS.labels("request").inc();
+                        LOG.error("Error processing {} {}", ctx.method(), ctx.path(), cause);
+                        ctx.status(500).result("Error processing file");
+                    }
+                    return null;
+                }));
+    }
+
+    private static ExecutorService boundedExecutor(String name, int threads, int queueDepth) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueDepth),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
 
-            // Check if data is already in cache
-            List<StreamingHistoryEntry> entries = cache.get(cacheKey);
+    // The uploaded files, or null once the request was answered with 400 or 413
+    private static List<UploadedFile> uploadedFiles(Context ctx) {
+        if (ctx.contentLength() > UPLOAD_MAX_BYTES) {
+            ctx.status(413).result("Upload exceeds " + UPLOAD_MAX_BYTES + " bytes");
+            return null;
+        }
+        List<UploadedFile> files;
+        try {
+            files = ctx.uploadedFiles("file");
+        } catch (IllegalStateException e) {
+            // Jetty stops reading a multipart body once it passes the configured limits
+            ctx.status(413).result("Upload exceeds " + UPLOAD_MAX_BYTES + " bytes");
+            return null;
+        }
+        if (files.isEmpty()) {
+            ctx.status(400).result("No file uploaded");
+            return null;
+        }
+        return files;
+    }
 
-            if (entries == null) {
-                // Data not in cache, parse the CSV and store in cache
-                entries = SpotifyDataService.parseCsv(file.content());
-                cache.put(cacheKey, entries);
-                System.out.println("Data parsed and cached.");
+    // Uploads may be a CSV, the zipped export or one or more of its JSON files. Each file is read once: the
+    // bytes go through the SHA-256 digest on their way into the parser (or into the temp file that large
+    // CSVs and zips are spooled to and memory-mapped from), so the content hash is known when parsing ends.
+    // Uploads are matched by file names and sizes (their signature) to earlier ones: a copy of an upload
+    // that is being parsed, or of a recent one whose dataset is still stored, is only hashed, to confirm it
+    // has the same content, before taking that dataset. Only when the content turns out to differ is it read
+    // a second time, to parse it. Hashing and parsing run on the upload pool; waiting for another copy's
+    // parse holds no thread of it.
+    private CompletableFuture<ParsedUpload> loadDataset(List<UploadedFile> files) {
+        // Same key and same merge order no matter how the client ordered the parts
+        List<UploadedFile> sorted = sortedByName(files);
+        if (tier != null) {
+            return submit(uploadExecutor, () -> datasetId(sorted))
+                    .thenCompose(datasetId -> submit(WAIT_EXECUTOR, () -> loadShared(datasetId, sorted)));
+        }
+        String signature = signature(sorted);
+        CompletableFuture<ParsedUpload> ownParse = new CompletableFuture<>();
+        CompletableFuture<ParsedUpload> inFlight = parsing.putIfAbsent(signature, ownParse);
+        if (inFlight != null) {
+            return submit(uploadExecutor, () -> datasetId(sorted)).thenCompose(datasetId -> inFlight
+                    // The other copy may have failed for reasons of its own, or had other content
+                    .handle((first, e) -> e == null && first.id().equals(datasetId) ? first : null)
+                    .thenCompose(first -> first != null ? CompletableFuture.completedFuture(first)
+                            : submit(uploadExecutor, () -> storeHashed(datasetId, sorted))));
+        }
+        String recentId = recentUploads.get(signature);
+        submit(uploadExecutor, () -> {
+            StreamingHistoryDataset recent = recentId == null ? null : storedDataset(recentId);
+            if (recent != null) {
+                String datasetId = datasetId(sorted);
+                return datasetId.equals(recentId) ? new ParsedUpload(datasetId, recent) : storeHashed(datasetId, sorted);
+            }
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StreamingHistoryDataset dataset = parseFiles(sorted, md);
+            // URL-safe so the key can double as the dataset ID in /datasets/{datasetId}
+            return store(Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest()), dataset);
+        }).whenComplete((upload, e) -> {
+            if (upload != null) {
+                recentUploads.put(signature, upload.id());
+            }
+            parsing.remove(signature, ownParse);
+            if (e != null) {
+                ownParse.completeExceptionally(e);
             } else {
-                System.out.println("Data retrieved from cache.");
+                ownParse.complete(upload);
             }
+        });
+        return ownParse;
+    }
 
-            Object result = SpotifyDataService.analyzeData(entries, analysis, api);
+    // With a tier the ID is needed before parsing, to look for the dataset there and to take the lock that
+    // keeps other nodes from parsing the same upload, so the files were hashed in a pass of their own. Runs
+    // on a virtual thread, which waits for the lock or another node's snapshot; the parse itself goes to the
+    // upload pool.
+    private ParsedUpload loadShared(String datasetId, List<UploadedFile> sorted) throws IOException {
+        StreamingHistoryDataset stored = storedDataset(datasetId);
+        if (stored != null) {
+            return new ParsedUpload(datasetId, stored);
+        }
+        // Parsed once per upload: in this process through the cache's single-flight load, across nodes by
+        // whichever one takes the tier's lock first while the others wait for its snapshot
+        StreamingHistoryDataset dataset = cache.get(datasetId, () -> tier.fetchOrPopulate("parse/" + datasetId,
+                () -> fetchShared(datasetId),
+                () -> SpotifyDataService.await(submit(uploadExecutor, () -> {
+                    StreamingHistoryDataset parsed = parseFiles(sorted, null);
+                    LOG.info("Parsed {} plays into {}", parsed.size(), datasetId);
+                    writeSnapshot(datasetId, parsed);
+                    return parsed;
+                })),
+                TIER_LOCK_TTL_MILLIS));
+        return new ParsedUpload(datasetId, dataset);
+    }
 
-            if (result != null) {
-                ctx.json(result);
-            } else {
-                ctx.status(500).result("Error processing request");
+    // File names and sizes, the same for copies of one upload
+    private static String signature(List<UploadedFile> files) {
+        StringBuilder signature = new StringBuilder();
+        for (UploadedFile file : files) {
+            signature.append(file.filename()).append('/').append(file.size()).append('/');
+        }
+        return signature.toString();
+    }
+
+    // SHA-256 over the files in order, without parsing them
+    private static String datasetId(List<UploadedFile> files) throws IOException, NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (UploadedFile file : files) {
+            try (InputStream content = file.content()) {
+                content.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), md));
             }
+            UPLOAD_BYTES.labels().add(file.size());
+        }
+        String datasetId = Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest());
+        HASH_SECONDS.labels().observeSince(start);
+        return datasetId;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).result("Error processing file");
+    // Parses the files in order into one dataset, also feeding their bytes to md unless it is null
+    private static StreamingHistoryDataset parseFiles(List<UploadedFile> files, MessageDigest md) throws IOException {
+        List<StreamingHistoryDataset> parts = new ArrayList<>();
+        long hashNanos = 0;
+        for (UploadedFile file : files) {
+            if (md == null) {
+                try (InputStream content = file.content()) {
+                    parts.add(SpotifyDataService.parseUpload(content, file.size()));
+                }
+                continue;
+            }
+            try (HashingInputStream content = new HashingInputStream(file.content(), md)) {
+                parts.add(SpotifyDataService.parseUpload(content, file.size()));
+                // Anything the parser did not need, e.g. whitespace after a JSON array, still counts for the hash
+                content.transferTo(OutputStream.nullOutputStream());
+                hashNanos += content.hashNanos;
+            }
+            UPLOAD_BYTES.labels().add(file.size());
         }
+        if (md != null) {
+            HASH_SECONDS.labels().observeNanos(hashNanos);
+        }
+        return StreamingHistoryDataset.concat(parts);
+    }
+
+    // The stored dataset with the ID of files hashed already, otherwise the files parsed and stored under it
+    private ParsedUpload storeHashed(String datasetId, List<UploadedFile> files) throws IOException {
+        StreamingHistoryDataset stored = storedDataset(datasetId);
+        return stored != null ? new ParsedUpload(datasetId, stored) : store(datasetId, parseFiles(files, null));
     }
 
-    private JsonMapper createGsonMapper() {
-        Gson gson = new GsonBuilder()
+    // The stored dataset if an earlier upload had the same content, otherwise this one, cached and stored
+    private ParsedUpload store(String datasetId, StreamingHistoryDataset dataset) throws IOException {
+        StreamingHistoryDataset stored = storedDataset(datasetId);
+        if (stored != null) {
+            return new ParsedUpload(datasetId, stored);
+        }
+        cache.put(datasetId, dataset);
+        LOG.info("Parsed {} plays into {}", dataset.size(), datasetId);
+        writeSnapshot(datasetId, dataset);
+        return new ParsedUpload(datasetId, dataset);
+    }
+
+    private static Path snapshotPath(String datasetId) {
+        return SNAPSHOT_DIR.resolve(datasetId + ".snapshot");
+    }
+
+    private static Path sketchPath(String datasetId) {
+        return SNAPSHOT_DIR.resolve(datasetId + ".sketch");
+    }
+
+    private void writeSnapshot(String datasetId, StreamingHistoryDataset dataset) {
+        try {
+            DatasetSnapshot.write(dataset, snapshotPath(datasetId));
+        } catch (IOException e) {
+            // The dataset is still served from the cache, it just won't survive eviction or a restart
+            Metrics.ERRORS.labels("snapshot-write").inc();
+            LOG.warn("Error writing snapshot of {}: {}", datasetId, e.getMessage());
+            return;
+        }
+        try {
+            WeeklySketches.write(dataset, sketchPath(datasetId));
+        } catch (IOException e) {
+            // Sketches of an earlier version must not stay behind, missing ones are rebuilt by /stats/weekly
+            Metrics.ERRORS.labels("sketch-write").inc();
+            LOG.warn("Error writing sketches of {}: {}", datasetId, e.getMessage());
+            deleteSketches(datasetId);
+        }
+        if (tier != null) {
+            try {
+                // Snapshot before version, so a node that sees the version finds a snapshot at least as new
+                tier.upload("dataset/" + datasetId, snapshotPath(datasetId));
+                tier.put("dataset-version/" + datasetId, ByteBuffer.allocate(4).putInt(dataset.version()).array());
+            } catch (IOException e) {
+                // Other nodes parse the upload themselves, or keep serving the previous version
+                Metrics.ERRORS.labels("tier-write").inc();
+                LOG.warn("Error writing snapshot of {} to the shared tier: {}", datasetId, e.getMessage());
+            }
+        }
+    }
+
+    private static void deleteSketches(String datasetId) {
+        try {
+            Files.deleteIfExists(sketchPath(datasetId));
+        } catch (IOException ignored) {
+        }
+    }
+
+    // The dataset's snapshot copied from the tier and mapped; null if the tier does not have it
+    private StreamingHistoryDataset fetchShared(String datasetId) throws IOException {
+        boolean found = tier.download("dataset/" + datasetId, snapshotPath(datasetId));
+        ExternalCacheTier.LOOKUPS.labels("dataset", found ? "hit" : "miss").inc();
+        if (!found) {
+            return null;
+        }
+        // Written for whatever version this node had, /stats/weekly rebuilds them
+        deleteSketches(datasetId);
+        return DatasetSnapshot.open(snapshotPath(datasetId));
+    }
+
+    // Latest version of the dataset any node stored in the tier; -1 if none did or there is no tier
+    private int sharedVersion(String datasetId) throws IOException {
+        byte[] version = tier == null ? null : tier.get("dataset-version/" + datasetId);
+        return version == null ? -1 : ByteBuffer.wrap(version).getInt();
+    }
+
+    // A dataset from the cache, mapped from its snapshot, or copied from the tier; null if it is neither.
+    // A cached copy is answered without a round trip to the tier: its version was checked when it was
+    // loaded, and is checked again before this node appends to it. Another node's append is picked up when
+    // the dataset is loaded again or appended to here.
+    private StreamingHistoryDataset storedDataset(String datasetId) throws IOException {
+        StreamingHistoryDataset cached = cache.getIfPresent(datasetId);
+        return cached != null ? cached : latestDataset(datasetId);
+    }
+
+    // As storedDataset, but with a tier a cached copy older than the version another node appended to is
+    // replaced by that version
+    private StreamingHistoryDataset latestDataset(String datasetId) throws IOException {
+        StreamingHistoryDataset cached = cache.getIfPresent(datasetId);
+        if (!DATASET_ID.matcher(datasetId).matches()) {
+            return cached;
+        }
+        int sharedVersion = sharedVersion(datasetId);
+        if (cached != null && cached.version() >= sharedVersion) {
+            return cached;
+        }
+        Path snapshot = snapshotPath(datasetId);
+        if (sharedVersion < 0 && !Files.exists(snapshot)) {
+            return null;
+        }
+        if (cached != null) {
+            cache.invalidate(datasetId);
+        }
+        return cache.get(datasetId, () -> {
+            if (Files.exists(snapshot)) {
+                StreamingHistoryDataset local = DatasetSnapshot.open(snapshot);
+                if (local.version() >= sharedVersion) {
+                    return local;
+                }
+            }
+            StreamingHistoryDataset shared = fetchShared(datasetId);
+            if (shared == null) {
+                throw new IOException("Dataset " + datasetId + " is missing from the shared tier");
+            }
+            return shared;
+        });
+    }
+
+    // Also used by the serialization benchmarks
+    static Gson createGson() {
+        return new GsonBuilder()
                 .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeTypeAdapter())
                 .create();
+    }
 
-        return new JsonMapper() {
-            @Override
-            public <T> T fromJsonString(@NotNull String json, @NotNull Type targetType) {
-                return gson.fromJson(json, targetType);
+    private static CompressionStrategy compression() {
+        CompressionStrategy strategy = CompressionStrategy.Companion.brotli4jPresent()
+                ? new CompressionStrategy(new Brotli(), new Gzip())
+                : new CompressionStrategy(null, new Gzip());
+        strategy.setDefaultMinSizeForCompression(COMPRESSION_MIN_BYTES);
+        return strategy;
+    }
+
+    // Like DigestInputStream, but also adds up the time spent in the digest, which is otherwise hidden
+    // inside the parse. Single-byte reads are not timed, the parsers read through 64 KB buffers.
+    private static final class HashingInputStream extends FilterInputStream {
+        private final MessageDigest md;
+        private long hashNanos;
+
+        HashingInputStream(InputStream in, MessageDigest md) {
+            super(in);
+            this.md = md;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                md.update((byte) b);
             }
+            return b;
+        }
 
-            @Override
-            public String toJsonString(@NotNull Object obj, @NotNull Type type) {
-                return gson.toJson(obj, type);
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                long start = System.nanoTime();
+                md.update(b, off, n);
+                hashNanos += System.nanoTime() - start;
             }
-        };
-    }
+            return n;
+        }
 
-    private String getCacheKey(InputStream inputStream) throws IOException, NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            md.update(buffer, 0, bytesRead);
+        // Skipped bytes still count for the hash, so they are read (DigestInputStream would pass skip through)
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+            return Math.max(read(buffer, 0, buffer.length), 0);
         }
-        inputStream.close();
-        return Base64.getEncoder().encodeToString(md.digest());
     }
 
-    public static void main(String[] args) {
+    private static List<UploadedFile> sortedByName(List<UploadedFile> files) {
+        return files.stream()
+                .sorted(Comparator.comparing(UploadedFile::filename))
+                .toList();
+    }
+
+    public static void main(String[] args) throws IOException {
         new SpotifyDataController();
     }
 }
\ No newline at end of file
@@ -2,17 +2,59 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class SpotifyDataService {
+    // Worker threads for parallel ingestion, overridable with -Dspotify.ingest.threads
+    private static final int INGEST_THREADS =
+            Integer.getInteger("spotify.ingest.threads", Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService INGEST_EXECUTOR = Executors.newFixedThreadPool(INGEST_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "ingest-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // CSV uploads at least this large are parsed in parallel chunks
+    private static final long PARALLEL_CSV_MIN_BYTES = Long.getLong("spotify.ingest.parallelMinBytes", 8L * 1024 * 1024);
+
+    private static final Metrics.Family<Metrics.Histogram> PARSE_SECONDS = Metrics.histogram(
+            "spotify_parse_seconds", "Time to parse an uploaded file into a dataset", "format");
+    private static final Metrics.Family<Metrics.Counter> PARSE_ROWS = Metrics.counter(
+            "spotify_parse_rows_total", "Plays parsed from uploads", "format");
+    private static final Metrics.Family<Metrics.Counter> PARSE_BYTES = Metrics.counter(
+            "spotify_parse_bytes_total", "Bytes read by the upload parsers", "format");
+    private static final Metrics.Family<Metrics.Counter> PARSE_ERRORS = Metrics.counter(
+            "spotify_parse_errors_total", "Uploads that could not be parsed", "format");
+    private static final Metrics.Family<Metrics.Histogram> ANALYSIS_SECONDS = Metrics.histogram(
+            "spotify_analysis_seconds", "Time to compute an analysis, without waiting for Spotify lookups",
+            "analysis", "source");
+
+    // Audio history files of the extended export, current (Streaming_History_Audio_*) and older (endsong_*) naming
+    private static final Pattern AUDIO_HISTORY_FILE =
+            Pattern.compile("(?:.*/)?(?:Streaming_History_Audio_[^/]*|endsong_\\d+)\\.json");
+
     public static List<StreamingHistoryEntry> parseCsv(InputStream inputStream) throws IOException {
-        Reader reader = new InputStreamReader(inputStream);
+        Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
         CSVParser csvParser = CSVParser.parse(reader, CSVFormat.DEFAULT.builder()
                 .setHeader()
                 .setSkipHeaderRecord(true)
@@ -37,7 +79,202 @@ public class SpotifyDataService {
         return entries;
     }
 
+    // Same input as parseCsv, but read as raw UTF-8 bytes straight into dictionary-encoded columns
+    public static StreamingHistoryDataset parseCsvColumnar(InputStream inputStream) throws IOException {
+        return new StreamingHistoryCsvReader(inputStream).read();
+    }
+
+    // Splits the file into row-aligned chunks parsed concurrently on the ingest pool, see ParallelCsvIngest
+    public static StreamingHistoryDataset parseCsvParallel(Path file) throws IOException {
+        return ParallelCsvIngest.parse(file, INGEST_EXECUTOR, INGEST_THREADS);
+    }
+
+    public static StreamingHistoryDataset parseUpload(InputStream inputStream) throws IOException {
+        return parseUpload(inputStream, -1);
+    }
+
+    // Accepts a CSV export, a single extended-history JSON file or the zipped export, detected from the content.
+    // sizeHint is the upload size if known (or -1), large CSV uploads are parsed in parallel.
+    // Time, rows and bytes are recorded per format, so rows/s and bytes/s follow from their rates.
+    public static StreamingHistoryDataset parseUpload(InputStream inputStream, long sizeHint) throws IOException {
+        long start = System.nanoTime();
+        CountingInputStream counted = new CountingInputStream(inputStream);
+        BufferedInputStream in = new BufferedInputStream(counted, 1 << 16);
+        byte[] head = new byte[64];
+        in.mark(head.length);
+        int headLength = in.readNBytes(head, 0, head.length);
+        in.reset();
+
+        String format = format(head, headLength, sizeHint);
+        StreamingHistoryDataset dataset;
+        try {
+            dataset = parseAs(format, in, head, headLength);
+        } catch (IOException | RuntimeException e) {
+            PARSE_ERRORS.labels(format).inc();
+            throw e;
+        }
+        PARSE_SECONDS.labels(format).observeSince(start);
+        PARSE_ROWS.labels(format).add(dataset.size());
+        PARSE_BYTES.labels(format).add(counted.count);
+        return dataset;
+    }
+
+    private static String format(byte[] head, int headLength, long sizeHint) {
+        if (headLength >= 4 && head[0] == 'P' && head[1] == 'K' && head[2] == 3 && head[3] == 4) {
+            return "zip";
+        }
+        if (startsJsonArray(head, headLength)) {
+            return "json";
+        }
+        return INGEST_THREADS > 1 && sizeHint >= PARALLEL_CSV_MIN_BYTES ? "csv-parallel" : "csv";
+    }
+
+    private static StreamingHistoryDataset parseAs(String format, BufferedInputStream in, byte[] head,
+                                                  int headLength) throws IOException {
+        if (format.equals("zip")) {
+            // ZipFile needs random access to decode entries in parallel, so spool the archive first
+            Path zipFile = Files.createTempFile("spotify-export-", ".zip");
+            try {
+                Files.copy(in, zipFile, StandardCopyOption.REPLACE_EXISTING);
+                return parseZip(zipFile);
+            } finally {
+                Files.deleteIfExists(zipFile);
+            }
+        }
+        if (format.equals("json")) {
+            if (hasUtf8Bom(head, headLength)) {
+                in.skipNBytes(3);
+            }
+            return new StreamingHistoryJsonReader(in).read();
+        }
+        if (format.equals("csv-parallel")) {
+            // Chunks need random access, so the CSV goes to a temp file first
+            Path csvFile = Files.createTempFile("spotify-export-", ".csv");
+            try {
+                Files.copy(in, csvFile, StandardCopyOption.REPLACE_EXISTING);
+                return parseCsvParallel(csvFile);
+            } finally {
+                Files.deleteIfExists(csvFile);
+            }
+        }
+        return parseCsvColumnar(in);
+    }
+
+    // Decodes every audio history file of the archive on the ingest pool, then appends them in file name order
+    public static StreamingHistoryDataset parseZip(Path zipFile) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            List<? extends ZipEntry> historyFiles = zip.stream()
+                    .filter(entry -> !entry.isDirectory() && AUDIO_HISTORY_FILE.matcher(entry.getName()).matches())
+                    .sorted(Comparator.comparing(ZipEntry::getName))
+                    .toList();
+            if (historyFiles.isEmpty()) {
+                throw new IOException("No Streaming_History_Audio_*.json files found in the archive");
+            }
+
+            List<Future<StreamingHistoryDataset>> pending = new ArrayList<>();
+            for (ZipEntry entry : historyFiles) {
+                pending.add(INGEST_EXECUTOR.submit(() -> {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+                        new StreamingHistoryJsonReader(in).readInto(builder);
+                        return builder.buildPart();
+                    }
+                }));
+            }
+
+            List<StreamingHistoryDataset> parts = new ArrayList<>();
+            for (Future<StreamingHistoryDataset> part : pending) {
+                parts.add(await(part));
+            }
+            return StreamingHistoryDataset.concat(parts);
+        }
+    }
+
+    private static boolean startsJsonArray(byte[] head, int length) {
+        int i = hasUtf8Bom(head, length) ? 3 : 0;
+        while (i < length && (head[i] == ' ' || head[i] == '\t' || head[i] == '\r' || head[i] == '\n')) {
+            i++;
+        }
+        return i < length && head[i] == '[';
+    }
+
+    private static boolean hasUtf8Bom(byte[] head, int length) {
+        return length >= 3 && head[0] == (byte) 0xEF && head[1] == (byte) 0xBB && head[2] == (byte) 0xBF;
+    }
+
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing upload", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    public static long estimateRetainedBytes(List<StreamingHistoryEntry> entries) {
+        // Reference slots of the backing ArrayList plus the entries themselves
+        long bytes = 16 + 4L * entries.size();
+        for (StreamingHistoryEntry entry : entries) {
+            bytes += entry.estimatedRetainedBytes();
+        }
+        return bytes;
+    }
+
     public static Object analyzeData(List<StreamingHistoryEntry> entries, Analysis analysis, SpotifyAPIService api) {
-        return analysis.analyze(entries, api);
+        long start = System.nanoTime();
+        Object result = analysis.analyze(entries, api);
+        ANALYSIS_SECONDS.labels(analysis.getClass().getSimpleName(), "entries").observeSince(start);
+        return result;
+    }
+
+    public static Object analyzeData(StreamingHistoryDataset dataset, Analysis analysis, SpotifyAPIService api) {
+        long start = System.nanoTime();
+        Object result = analysis.analyze(dataset, api);
+        ANALYSIS_SECONDS.labels(analysis.getClass().getSimpleName(), dataset.isMapped() ? "snapshot" : "heap")
+                .observeSince(start);
+        return result;
+    }
+
+    // Bytes read through it, for the parse throughput metrics
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
     }
 }
\ No newline at end of file
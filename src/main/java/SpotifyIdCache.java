@@ -0,0 +1,225 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Spotify IDs found through the search API, keyed by what was searched for. Two tiers: a small in-memory
+// cache of recent results in front of an append-only log on disk, so resolutions survive restarts.
+// "Not found" is cached as well, with a shorter TTL; failed requests are not cached at all.
+//
+// Log records are [int length][long expiresAtMillis][UTF key][UTF id], with an empty id for "not found".
+// The latest record for a key wins. Only the offsets are kept in memory, and the log is compacted on
+// open once most of it is stale.
+public final class SpotifyIdCache implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpotifyIdCache.class);
+
+
+    // Runs the actual search, returns null when nothing matches
+    @FunctionalInterface
+    public interface Lookup {
+        String find() throws IOException;
+    }
+
+    private record Resolution(String id, long expiresAtMillis) {
+        boolean isExpired(long now) {
+            return expiresAtMillis <= now;
+        }
+    }
+
+    private record Location(long offset, int length) {
+    }
+
+    private static final String NOT_FOUND = "";
+    private static final long MEMORY_MAX_BYTES = 16L * 1024 * 1024;
+    private static final long MEMORY_IDLE_TTL_MILLIS = 60L * 60 * 1000;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final BoundedCache<String, Resolution> memory;
+    private final FileChannel log;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    private SpotifyIdCache(FileChannel log, long ttlMillis, long negativeTtlMillis) {
+        this.log = log;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.memory = new BoundedCache<>(MEMORY_MAX_BYTES, MEMORY_IDLE_TTL_MILLIS,
+                resolution -> 64 + 2L * resolution.id().length());
+    }
+
+    public static SpotifyIdCache open(Path file, long ttlMillis, long negativeTtlMillis) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        SpotifyIdCache cache = new SpotifyIdCache(
+                FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                ttlMillis, negativeTtlMillis);
+        int records = cache.loadIndex();
+        if (records >= COMPACT_MIN_RECORDS && records > 2 * cache.index.size()) {
+            cache.close();
+            compact(file);
+            cache = new SpotifyIdCache(
+                    FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE), ttlMillis, negativeTtlMillis);
+            cache.loadIndex();
+        }
+        LOG.info("Loaded {} cached Spotify IDs from {}", cache.index.size(), file);
+        return cache;
+    }
+
+    // The cached ID, or the lookup's result which is then cached. Null means not found.
+    public String resolve(String key, Lookup lookup) throws IOException {
+        long now = System.currentTimeMillis();
+        Resolution resolution = memory.getIfPresent(key);
+        if (resolution != null && resolution.isExpired(now)) {
+            memory.invalidate(key);
+            resolution = null;
+        }
+        if (resolution == null) {
+            // Concurrent misses for the same key share one disk read or search
+            resolution = memory.get(key, () -> load(key, lookup));
+        }
+        return resolution.id().isEmpty() ? null : resolution.id();
+    }
+
+    // Of the in-memory tier; a miss there may still be answered from the log without a search
+    public BoundedCache.Stats stats() {
+        return memory.stats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    private Resolution load(String key, Lookup lookup) throws IOException {
+        long now = System.currentTimeMillis();
+        Location location = index.get(key);
+        if (location != null) {
+            Resolution stored = read(location).getValue();
+            if (!stored.isExpired(now)) {
+                return stored;
+            }
+        }
+
+        String id = lookup.find();
+        Resolution resolution = id == null
+                ? new Resolution(NOT_FOUND, now + negativeTtlMillis)
+                : new Resolution(id, now + ttlMillis);
+        try {
+            append(key, resolution);
+        } catch (IOException e) {
+            // Still usable from memory, it is only looked up again after a restart
+            Metrics.ERRORS.labels("id-cache-write").inc();
+            LOG.warn("Error writing Spotify ID cache: {}", e.getMessage());
+        }
+        return resolution;
+    }
+
+    private synchronized void append(String key, Resolution resolution) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Length placeholder
+        out.writeLong(resolution.expiresAtMillis());
+        out.writeUTF(key);
+        out.writeUTF(resolution.id());
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.capacity() - Integer.BYTES);
+
+        long offset = log.size();
+        while (record.hasRemaining()) {
+            log.write(record, offset + record.position());
+        }
+        index.put(key, new Location(offset, record.capacity()));
+    }
+
+    private Map.Entry<String, Resolution> read(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length());
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, location.offset() + buffer.position()) < 0) {
+                throw new IOException("Truncated record at offset " + location.offset());
+            }
+        }
+        return decode(buffer.array());
+    }
+
+    // Indexes the latest record per key and returns the number of records. A torn record left by a crash
+    // mid-append is cut off.
+    private int loadIndex() throws IOException {
+        long size = log.size();
+        long offset = 0;
+        int records = 0;
+        long now = System.currentTimeMillis();
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        while (offset + Integer.BYTES <= size) {
+            header.clear();
+            log.read(header, offset);
+            int payloadLength = header.getInt(0);
+            if (payloadLength <= 0 || offset + Integer.BYTES + payloadLength > size) {
+                break;
+            }
+            Location location = new Location(offset, Integer.BYTES + payloadLength);
+            Map.Entry<String, Resolution> record = read(location);
+            if (record.getValue().isExpired(now)) {
+                index.remove(record.getKey());
+            } else {
+                index.put(record.getKey(), location);
+            }
+            offset += location.length();
+            records++;
+        }
+        if (offset < size) {
+            Metrics.ERRORS.labels("id-cache-truncated").inc();
+            LOG.warn("Discarding {} trailing bytes of the Spotify ID cache", size - offset);
+            log.truncate(offset);
+        }
+        return records;
+    }
+
+    // Rewrites the log with only the live record of each key
+    private static void compact(Path file) throws IOException {
+        Map<String, Resolution> live = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SpotifyIdCache source = new SpotifyIdCache(channel, 0, 0);
+            source.loadIndex();
+            for (Map.Entry<String, Location> entry : source.index.entrySet()) {
+                live.put(entry.getKey(), source.read(entry.getValue()).getValue());
+            }
+        }
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            SpotifyIdCache target = new SpotifyIdCache(channel, 0, 0);
+            for (Map.Entry<String, Resolution> entry : live.entrySet()) {
+                target.append(entry.getKey(), entry.getValue());
+            }
+            channel.force(true);
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Map.Entry<String, Resolution> decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        in.readInt();
+        long expiresAtMillis = in.readLong();
+        String key = in.readUTF();
+        String id = in.readUTF();
+        return Map.entry(key, new Resolution(id, expiresAtMillis));
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Single-pass CSV reader for streaming history exports. Works on raw UTF-8 bytes, resolves the column
+// positions once from the header and encodes fields straight into the dataset builder's dictionaries.
+// Unquoted fields take the fast path; quoted fields (embedded commas, newlines, "" escapes) are unescaped
+// into the same row buffer, so both end up as byte ranges handled the same way.
+public class StreamingHistoryCsvReader {
+    static final String[] COLUMNS = {
+            "ts", "ms_played",
+            "master_metadata_track_name", "master_metadata_album_artist_name", "master_metadata_album_album_name",
+            "spotify_track_uri", "reason_start", "reason_end"
+    };
+    private static final int TS = 0;
+    private static final int MS_PLAYED = 1;
+    private static final int TRACK_NAME = 2;
+    private static final int ARTIST_NAME = 3;
+    private static final int ALBUM_NAME = 4;
+    private static final int TRACK_URI = 5;
+    private static final int REASON_START = 6;
+    private static final int REASON_END = 7;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // Current row: unescaped field contents back to back, delimited by fieldStarts/fieldEnds
+    private byte[] row = new byte[512];
+    private int rowLength;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+    private long rowNumber;
+
+    // Field index of each entry in COLUMNS
+    private int[] columnIndexes;
+
+    public StreamingHistoryCsvReader(InputStream in) {
+        this.in = in;
+    }
+
+    // For input without a header line, e.g. a chunk of a larger file whose header was read elsewhere
+    public StreamingHistoryCsvReader(InputStream in, int[] columnIndexes) {
+        this.in = in;
+        this.columnIndexes = columnIndexes.clone();
+    }
+
+    public StreamingHistoryDataset read() throws IOException {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        readInto(builder);
+        return builder.build();
+    }
+
+    public void readInto(StreamingHistoryDataset.Builder builder) throws IOException {
+        if (columnIndexes == null) {
+            readHeader();
+        }
+        while (readRow()) {
+            if (fieldCount == 1 && fieldEnds[0] == fieldStarts[0]) {
+                continue; // Empty line
+            }
+            addRow(builder);
+        }
+    }
+
+    public int[] columnIndexes() throws IOException {
+        if (columnIndexes == null) {
+            readHeader();
+        }
+        return columnIndexes.clone();
+    }
+
+    private void readHeader() throws IOException {
+        if (!readRow()) {
+            throw new IOException("CSV input is empty");
+        }
+        int bomLength = fieldEnds[0] - fieldStarts[0] >= 3
+                && row[0] == (byte) 0xEF && row[1] == (byte) 0xBB && row[2] == (byte) 0xBF ? 3 : 0;
+        fieldStarts[0] += bomLength;
+
+        columnIndexes = new int[COLUMNS.length];
+        Arrays.fill(columnIndexes, -1);
+        for (int field = 0; field < fieldCount; field++) {
+            String name = new String(row, fieldStarts[field], fieldEnds[field] - fieldStarts[field], StandardCharsets.UTF_8)
+                    .toLowerCase(Locale.ROOT);
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (COLUMNS[column].equals(name) && columnIndexes[column] < 0) {
+                    columnIndexes[column] = field;
+                }
+            }
+        }
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (columnIndexes[column] < 0) {
+                throw new IllegalArgumentException("Mapping for " + COLUMNS[column] + " not found in CSV header");
+            }
+        }
+    }
+
+    private void addRow(StreamingHistoryDataset.Builder builder) throws IOException {
+        for (int columnIndex : columnIndexes) {
+            if (columnIndex >= fieldCount) {
+                throw new IOException("Row " + rowNumber + " has only " + fieldCount + " fields");
+            }
+        }
+        builder.addEncoded(
+                parseTimestamp(columnIndexes[TS]),
+                parseMsPlayed(columnIndexes[MS_PLAYED]),
+                encode(builder.trackNames(), columnIndexes[TRACK_NAME]),
+                encode(builder.artistNames(), columnIndexes[ARTIST_NAME]),
+                encode(builder.albumNames(), columnIndexes[ALBUM_NAME]),
+                encode(builder.trackUris(), columnIndexes[TRACK_URI]),
+                encode(builder.reasons(), columnIndexes[REASON_START]),
+                encode(builder.reasons(), columnIndexes[REASON_END])
+        );
+    }
+
+    private int encode(StringDictionary dictionary, int field) {
+        return dictionary.encode(row, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+
+    // Fixed yyyy-MM-ddTHH:mm:ssZ layout parsed in place, anything else goes through DateTimeFormatter
+    private long parseTimestamp(int field) {
+        int s = fieldStarts[field];
+        if (fieldEnds[field] - s == 20
+                && row[s + 4] == '-' && row[s + 7] == '-' && row[s + 10] == 'T'
+                && row[s + 13] == ':' && row[s + 16] == ':' && row[s + 19] == 'Z') {
+            int year = digits(s, 4);
+            int month = digits(s + 5, 2);
+            int day = digits(s + 8, 2);
+            int hour = digits(s + 11, 2);
+            int minute = digits(s + 14, 2);
+            int second = digits(s + 17, 2);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= EpochTime.daysInMonth(year, month)
+                    && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60) {
+                return EpochTime.toEpochSecond(year, month, day, hour, minute, second);
+            }
+        }
+        return LocalDateTime.parse(fieldString(field), TIMESTAMP_FORMAT).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private long parseMsPlayed(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (start == end || end - start > 18) {
+            return Long.parseLong(fieldString(field));
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = row[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(fieldString(field));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Returns -1 if any byte is not a digit
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = row[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private String fieldString(int field) {
+        return new String(row, fieldStarts[field], fieldEnds[field] - fieldStarts[field], StandardCharsets.UTF_8);
+    }
+
+    // Reads the next record into the row buffer, returns false at end of input
+    private boolean readRow() throws IOException {
+        rowLength = 0;
+        fieldCount = 0;
+        int b = next();
+        if (b < 0) {
+            return false;
+        }
+
+        while (true) {
+            int start = rowLength;
+            while (b >= 0 && b <= ' ' && b != '\n') {
+                b = next(); // Leading blanks, trimmed like CSVFormat.setTrim(true)
+            }
+
+            if (b == '"') {
+                b = readQuoted();
+            }
+            if (b >= 0 && b != ',' && b != '\n') {
+                append(b);
+                b = readUnquoted();
+            }
+
+            int end = rowLength;
+            while (end > start && (row[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+            addField(start, end);
+
+            if (b != ',') {
+                rowNumber++;
+                return true;
+            }
+            b = next();
+        }
+    }
+
+    // Copies bytes up to the next delimiter in bulk, returns the delimiter (or -1)
+    private int readUnquoted() throws IOException {
+        while (true) {
+            int i = position;
+            while (i < limit) {
+                byte c = buffer[i];
+                if (c == ',' || c == '\n') {
+                    break;
+                }
+                i++;
+            }
+            append(buffer, position, i - position);
+            position = i;
+            if (i < limit) {
+                return buffer[position++];
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    // Unescapes a quoted field, returns the byte following the closing quote
+    private int readQuoted() throws IOException {
+        while (true) {
+            int b = next();
+            if (b < 0) {
+                throw new IOException("Unterminated quoted field in row " + (rowNumber + 1));
+            }
+            if (b == '"') {
+                b = next();
+                if (b != '"') {
+                    return b;
+                }
+            }
+            append(b);
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    private void append(int b) {
+        if (rowLength == row.length) {
+            row = Arrays.copyOf(row, row.length * 2);
+        }
+        row[rowLength++] = (byte) b;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (rowLength + length > row.length) {
+            row = Arrays.copyOf(row, Math.max(row.length * 2, rowLength + length));
+        }
+        System.arraycopy(bytes, offset, row, rowLength, length);
+        rowLength += length;
+    }
+
+    private int next() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        while (read == 0) {
+            read = in.read(buffer, 0, buffer.length);
+        }
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
@@ -0,0 +1,554 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Columnar, dictionary-encoded streaming history. One primitive column per field, repeated strings stored once.
+// Every dictionary only holds values that occur in at least one row, so dictionary sizes are distinct counts.
+// Columns are buffers so the same class serves parsed data (heap arrays) and snapshots mapped from disk.
+public final class StreamingHistoryDataset {
+    private final int size;
+    // 1 when parsed, incremented by every append that adds plays
+    private final int version;
+    private final LongBuffer epochSeconds;
+    private final IntBuffer msPlayed;
+    private final IntBuffer trackNameCodes;
+    private final IntBuffer artistNameCodes;
+    private final IntBuffer albumNameCodes;
+    private final IntBuffer trackUriCodes;
+    private final IntBuffer reasonStartCodes;
+    private final IntBuffer reasonEndCodes;
+    // (album, artist) pair per row, the grouping key of TopAlbumsAnalysis
+    private final IntBuffer albumArtistCodes;
+
+    private final StringDictionary trackNames;
+    private final StringDictionary artistNames;
+    private final StringDictionary albumNames;
+    private final StringDictionary trackUris;
+    private final StringDictionary reasons;
+    private final IntBuffer albumArtistAlbumCodes;
+    private final IntBuffer albumArtistArtistCodes;
+
+    // Built at ingestion, or on first use for a reopened snapshot
+    private volatile PlayRollups rollups;
+    private volatile TimeIndex timeIndex;
+
+    private StreamingHistoryDataset(Builder builder, int version) {
+        this(builder.size, version,
+                LongBuffer.wrap(Arrays.copyOf(builder.epochSeconds, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.msPlayed, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.trackNameCodes, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.artistNameCodes, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.albumNameCodes, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.trackUriCodes, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.reasonStartCodes, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.reasonEndCodes, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.albumArtistCodes, builder.size)),
+                IntBuffer.wrap(Arrays.copyOf(builder.albumArtistAlbumCodes, builder.albumArtistCount)),
+                IntBuffer.wrap(Arrays.copyOf(builder.albumArtistArtistCodes, builder.albumArtistCount)),
+                builder.trackNames, builder.artistNames, builder.albumNames, builder.trackUris, builder.reasons);
+    }
+
+    // Columns as stored in a snapshot, see DatasetSnapshot
+    StreamingHistoryDataset(int size, int version, LongBuffer epochSeconds, IntBuffer msPlayed,
+                            IntBuffer trackNameCodes, IntBuffer artistNameCodes, IntBuffer albumNameCodes,
+                            IntBuffer trackUriCodes, IntBuffer reasonStartCodes, IntBuffer reasonEndCodes,
+                            IntBuffer albumArtistCodes, IntBuffer albumArtistAlbumCodes, IntBuffer albumArtistArtistCodes,
+                            StringDictionary trackNames, StringDictionary artistNames, StringDictionary albumNames,
+                            StringDictionary trackUris, StringDictionary reasons) {
+        this.size = size;
+        this.version = version;
+        this.epochSeconds = epochSeconds;
+        this.msPlayed = msPlayed;
+        this.trackNameCodes = trackNameCodes;
+        this.artistNameCodes = artistNameCodes;
+        this.albumNameCodes = albumNameCodes;
+        this.trackUriCodes = trackUriCodes;
+        this.reasonStartCodes = reasonStartCodes;
+        this.reasonEndCodes = reasonEndCodes;
+        this.albumArtistCodes = albumArtistCodes;
+        this.albumArtistAlbumCodes = albumArtistAlbumCodes;
+        this.albumArtistArtistCodes = albumArtistArtistCodes;
+        this.trackNames = trackNames;
+        this.artistNames = artistNames;
+        this.albumNames = albumNames;
+        this.trackUris = trackUris;
+        this.reasons = reasons;
+    }
+
+    public static Builder builder() {
+        return new Builder(1024);
+    }
+
+    // Appends the parts in order into one dataset, re-encoding each part's dictionary codes. Parts may come
+    // from Builder.buildPart(); the rollups and time index are built once, over the result.
+    public static StreamingHistoryDataset concat(List<StreamingHistoryDataset> parts) {
+        if (parts.size() == 1) {
+            StreamingHistoryDataset only = parts.get(0);
+            only.rollups();
+            only.timeIndex();
+            return only;
+        }
+
+        int totalRows = 0;
+        for (StreamingHistoryDataset part : parts) {
+            totalRows += part.size;
+        }
+
+        Builder builder = new Builder(Math.max(totalRows, 1));
+        for (StreamingHistoryDataset part : parts) {
+            int[] trackNameCodes = remap(part.trackNames, builder.trackNames);
+            int[] artistNameCodes = remap(part.artistNames, builder.artistNames);
+            int[] albumNameCodes = remap(part.albumNames, builder.albumNames);
+            int[] trackUriCodes = remap(part.trackUris, builder.trackUris);
+            int[] reasonCodes = remap(part.reasons, builder.reasons);
+            for (int row = 0; row < part.size; row++) {
+                builder.addEncoded(part.epochSecond(row), part.msPlayed(row),
+                        trackNameCodes[part.trackNameCode(row)],
+                        artistNameCodes[part.artistNameCode(row)],
+                        albumNameCodes[part.albumNameCode(row)],
+                        trackUriCodes[part.trackUriCode(row)],
+                        reasonCodes[part.reasonStartCode(row)],
+                        reasonCodes[part.reasonEndCode(row)]);
+            }
+        }
+        return builder.build();
+    }
+
+    // A new version of this dataset with the plays of `added` it does not contain yet. Overlapping exports
+    // repeat plays, so a play counts as present when one with the same timestamp, track URI and ms played
+    // exists, found by binary search in the time index. New rows are added in time order after the existing
+    // ones; the rollups and time index take in only those rows. Returns this dataset if nothing is new.
+    public StreamingHistoryDataset append(StreamingHistoryDataset added) {
+        TimeIndex index = timeIndex();
+        TimeIndex addedIndex = added.timeIndex();
+        int[] existingTrackUris = unmapped(added.trackUris);
+        int[] trackNameCodes = unmapped(added.trackNames);
+        int[] artistNameCodes = unmapped(added.artistNames);
+        int[] albumNameCodes = unmapped(added.albumNames);
+        int[] trackUriCodes = unmapped(added.trackUris);
+        int[] reasonCodes = unmapped(added.reasons);
+
+        Builder builder = null;
+        int sameSecondStart = 0;
+        for (int position = 0; position < addedIndex.size(); position++) {
+            int row = addedIndex.row(position);
+            long epochSecond = added.epochSecond(row);
+            int trackUri = added.trackUriCode(row);
+            int ms = added.msPlayed(row);
+            if (position == 0 || addedIndex.epochSecond(position - 1) != epochSecond) {
+                sameSecondStart = position;
+            }
+            if (containsPlay(added, addedIndex, sameSecondStart, position, trackUri, ms)) {
+                continue;
+            }
+            if (existingTrackUris[trackUri] == -1) {
+                existingTrackUris[trackUri] = trackUris.codeOf(added.trackUris.decode(trackUri));
+            }
+            int existingTrackUri = existingTrackUris[trackUri];
+            if (existingTrackUri >= 0 && containsPlay(this, index, index.positionOf(epochSecond),
+                    index.positionOf(epochSecond + 1), existingTrackUri, ms)) {
+                continue;
+            }
+
+            if (builder == null) {
+                builder = new Builder(this, added.size);
+            }
+            builder.addEncoded(epochSecond, ms,
+                    remap(trackNameCodes, added.trackNames, builder.trackNames, added.trackNameCode(row)),
+                    remap(artistNameCodes, added.artistNames, builder.artistNames, added.artistNameCode(row)),
+                    remap(albumNameCodes, added.albumNames, builder.albumNames, added.albumNameCode(row)),
+                    remap(trackUriCodes, added.trackUris, builder.trackUris, trackUri),
+                    remap(reasonCodes, added.reasons, builder.reasons, added.reasonStartCode(row)),
+                    remap(reasonCodes, added.reasons, builder.reasons, added.reasonEndCode(row)));
+        }
+        if (builder == null) {
+            return this;
+        }
+
+        StreamingHistoryDataset appended = new StreamingHistoryDataset(builder, version + 1);
+        appended.rollups = rollups().withRows(appended, size);
+        appended.timeIndex = index.withRows(appended, size);
+        return appended;
+    }
+
+    // Whether positions [from, to) of the index, all with the same timestamp, hold a play of the track and length
+    private static boolean containsPlay(StreamingHistoryDataset dataset, TimeIndex index, int from, int to,
+                                       int trackUriCode, int msPlayed) {
+        for (int position = from; position < to; position++) {
+            int row = index.row(position);
+            if (dataset.trackUriCode(row) == trackUriCode && dataset.msPlayed(row) == msPlayed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] unmapped(StringDictionary from) {
+        int[] codes = new int[from.size()];
+        Arrays.fill(codes, -1);
+        return codes;
+    }
+
+    // Code in `into` for a code of `from`, encoded on first use so only values of added rows are taken over
+    private static int remap(int[] codes, StringDictionary from, StringDictionary into, int code) {
+        if (codes[code] == -1) {
+            codes[code] = into.encode(from.decode(code));
+        }
+        return codes[code];
+    }
+
+    private static int[] remap(StringDictionary from, StringDictionary into) {
+        int[] codes = new int[from.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = into.encode(from.decode(code));
+        }
+        return codes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public long epochSecond(int row) {
+        return epochSeconds.get(row);
+    }
+
+    public int msPlayed(int row) {
+        return msPlayed.get(row);
+    }
+
+    // Same truncation as StreamingHistoryEntry, so results match the row-based analyses
+    public long minutesPlayed(int row) {
+        return msPlayed.get(row) / 1000 / 60;
+    }
+
+    public int trackNameCode(int row) {
+        return trackNameCodes.get(row);
+    }
+
+    public int artistNameCode(int row) {
+        return artistNameCodes.get(row);
+    }
+
+    public int albumNameCode(int row) {
+        return albumNameCodes.get(row);
+    }
+
+    public int trackUriCode(int row) {
+        return trackUriCodes.get(row);
+    }
+
+    public int reasonStartCode(int row) {
+        return reasonStartCodes.get(row);
+    }
+
+    public int reasonEndCode(int row) {
+        return reasonEndCodes.get(row);
+    }
+
+    public int albumArtistCode(int row) {
+        return albumArtistCodes.get(row);
+    }
+
+    public StringDictionary trackNames() {
+        return trackNames;
+    }
+
+    public StringDictionary artistNames() {
+        return artistNames;
+    }
+
+    public StringDictionary albumNames() {
+        return albumNames;
+    }
+
+    public StringDictionary trackUris() {
+        return trackUris;
+    }
+
+    // Shared by reason_start and reason_end, both draw from the same small vocabulary
+    public StringDictionary reasons() {
+        return reasons;
+    }
+
+    public int albumArtistCount() {
+        return albumArtistAlbumCodes.limit();
+    }
+
+    int albumArtistAlbumCode(int albumArtistCode) {
+        return albumArtistAlbumCodes.get(albumArtistCode);
+    }
+
+    int albumArtistArtistCode(int albumArtistCode) {
+        return albumArtistArtistCodes.get(albumArtistCode);
+    }
+
+    // "album - artist", the key format used by TopAlbumsAnalysis and SpotifyAPIService.getAlbumUris
+    public String albumArtistKey(int albumArtistCode) {
+        return albumNames.decode(albumArtistAlbumCode(albumArtistCode)) + " - "
+                + artistNames.decode(albumArtistArtistCode(albumArtistCode));
+    }
+
+    // Per-month aggregates, answer the Top* queries without a scan
+    public PlayRollups rollups() {
+        PlayRollups built = rollups;
+        if (built == null) {
+            synchronized (this) {
+                built = rollups;
+                if (built == null) {
+                    built = PlayRollups.build(this);
+                    rollups = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    // Rows in timestamp order with per-day offsets, for date, hour and session lookups
+    public TimeIndex timeIndex() {
+        TimeIndex built = timeIndex;
+        if (built == null) {
+            synchronized (this) {
+                built = timeIndex;
+                if (built == null) {
+                    built = TimeIndex.build(this);
+                    timeIndex = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    // True when the columns are mapped from a snapshot file rather than held on the heap
+    public boolean isMapped() {
+        return epochSeconds.isDirect();
+    }
+
+    public StreamingHistoryEntry entry(int row) {
+        return new StreamingHistoryEntry(
+                LocalDateTime.ofEpochSecond(epochSecond(row), 0, ZoneOffset.UTC),
+                minutesPlayed(row),
+                trackNames.decode(trackNameCode(row)),
+                artistNames.decode(artistNameCode(row)),
+                albumNames.decode(albumNameCode(row)),
+                trackUris.decode(trackUriCode(row)),
+                reasons.decode(reasonStartCode(row)),
+                reasons.decode(reasonEndCode(row))
+        );
+    }
+
+    // Row view for code that still works on entries, each get() decodes one row
+    public List<StreamingHistoryEntry> asEntries() {
+        return new EntryView();
+    }
+
+    // Heap only: mapped columns live in the page cache
+    public long estimatedRetainedBytes() {
+        PlayRollups built = rollups;
+        TimeIndex index = timeIndex;
+        return 128
+                + (isMapped() ? 0 : (8L + 4L * 8) * size + 8L * albumArtistCount())
+                + trackNames.estimatedRetainedBytes()
+                + artistNames.estimatedRetainedBytes()
+                + albumNames.estimatedRetainedBytes()
+                + trackUris.estimatedRetainedBytes()
+                + reasons.estimatedRetainedBytes()
+                + (built == null ? 0 : built.estimatedRetainedBytes())
+                + (index == null ? 0 : index.estimatedRetainedBytes());
+    }
+
+    private final class EntryView extends AbstractList<StreamingHistoryEntry> implements RandomAccess {
+        @Override
+        public StreamingHistoryEntry get(int index) {
+            return entry(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    // Accumulates rows in growable column arrays, fed directly by the parsers
+    public static final class Builder {
+        private int size;
+        private long[] epochSeconds;
+        private int[] msPlayed;
+        private int[] trackNameCodes;
+        private int[] artistNameCodes;
+        private int[] albumNameCodes;
+        private int[] trackUriCodes;
+        private int[] reasonStartCodes;
+        private int[] reasonEndCodes;
+        private int[] albumArtistCodes;
+
+        private final StringDictionary trackNames = new StringDictionary();
+        private final StringDictionary artistNames = new StringDictionary();
+        private final StringDictionary albumNames = new StringDictionary();
+        private final StringDictionary trackUris = new StringDictionary();
+        private final StringDictionary reasons = new StringDictionary();
+
+        private final LongIntHashMap albumArtistIndex = new LongIntHashMap(1024);
+        private int[] albumArtistAlbumCodes = new int[256];
+        private int[] albumArtistArtistCodes = new int[256];
+        private int albumArtistCount;
+
+        private Builder(int capacity) {
+            epochSeconds = new long[capacity];
+            msPlayed = new int[capacity];
+            trackNameCodes = new int[capacity];
+            artistNameCodes = new int[capacity];
+            albumNameCodes = new int[capacity];
+            trackUriCodes = new int[capacity];
+            reasonStartCodes = new int[capacity];
+            reasonEndCodes = new int[capacity];
+            albumArtistCodes = new int[capacity];
+        }
+
+        // Starts with the rows and dictionaries of an existing dataset, codes unchanged, for appending to it
+        private Builder(StreamingHistoryDataset base, int extraCapacity) {
+            this(Math.max(base.size + extraCapacity, 1));
+            base.epochSeconds.get(0, epochSeconds, 0, base.size);
+            base.msPlayed.get(0, msPlayed, 0, base.size);
+            base.trackNameCodes.get(0, trackNameCodes, 0, base.size);
+            base.artistNameCodes.get(0, artistNameCodes, 0, base.size);
+            base.albumNameCodes.get(0, albumNameCodes, 0, base.size);
+            base.trackUriCodes.get(0, trackUriCodes, 0, base.size);
+            base.reasonStartCodes.get(0, reasonStartCodes, 0, base.size);
+            base.reasonEndCodes.get(0, reasonEndCodes, 0, base.size);
+            base.albumArtistCodes.get(0, albumArtistCodes, 0, base.size);
+            size = base.size;
+            copy(base.trackNames, trackNames);
+            copy(base.artistNames, artistNames);
+            copy(base.albumNames, albumNames);
+            copy(base.trackUris, trackUris);
+            copy(base.reasons, reasons);
+            for (int pair = 0; pair < base.albumArtistCount(); pair++) {
+                albumArtistCode(base.albumArtistAlbumCode(pair), base.albumArtistArtistCode(pair));
+            }
+        }
+
+        private static void copy(StringDictionary from, StringDictionary into) {
+            for (int code = 0; code < from.size(); code++) {
+                into.encode(from.decode(code));
+            }
+        }
+
+        public Builder add(long epochSecond, long msPlayed,
+                           String trackName, String artistName, String albumName,
+                           String spotifyTrackUri, String reasonStart, String reasonEnd) {
+            return addEncoded(epochSecond, msPlayed,
+                    trackNames.encode(trackName),
+                    artistNames.encode(artistName),
+                    albumNames.encode(albumName),
+                    trackUris.encode(spotifyTrackUri),
+                    reasons.encode(reasonStart),
+                    reasons.encode(reasonEnd));
+        }
+
+        // Entries only keep whole minutes, which is all the analyses read
+        public Builder add(StreamingHistoryEntry entry) {
+            return add(entry.ts().toEpochSecond(ZoneOffset.UTC), entry.minutesPlayed() * 60 * 1000,
+                    entry.trackName(), entry.artistName(), entry.albumName(),
+                    entry.spotifyTrackUri(), entry.reasonStart(), entry.reasonEnd());
+        }
+
+        public StringDictionary trackNames() {
+            return trackNames;
+        }
+
+        public StringDictionary artistNames() {
+            return artistNames;
+        }
+
+        public StringDictionary albumNames() {
+            return albumNames;
+        }
+
+        public StringDictionary trackUris() {
+            return trackUris;
+        }
+
+        public StringDictionary reasons() {
+            return reasons;
+        }
+
+        // For parsers that encode against the builder's dictionaries themselves
+        public Builder addEncoded(long epochSecond, long msPlayed,
+                                  int trackNameCode, int artistNameCode, int albumNameCode,
+                                  int trackUriCode, int reasonStartCode, int reasonEndCode) {
+            if (size == epochSeconds.length) {
+                grow();
+            }
+            this.epochSeconds[size] = epochSecond;
+            this.msPlayed[size] = (int) Math.min(Math.max(msPlayed, 0), Integer.MAX_VALUE);
+            this.trackNameCodes[size] = trackNameCode;
+            this.artistNameCodes[size] = artistNameCode;
+            this.albumNameCodes[size] = albumNameCode;
+            this.trackUriCodes[size] = trackUriCode;
+            this.reasonStartCodes[size] = reasonStartCode;
+            this.reasonEndCodes[size] = reasonEndCode;
+            this.albumArtistCodes[size] = albumArtistCode(albumNameCode, artistNameCode);
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public StreamingHistoryDataset build() {
+            StreamingHistoryDataset dataset = buildPart();
+            dataset.rollups = PlayRollups.build(dataset);
+            dataset.timeIndex = TimeIndex.build(dataset);
+            return dataset;
+        }
+
+        // Without the rollups and time index, for a part of an upload that only goes into concat
+        public StreamingHistoryDataset buildPart() {
+            trackNames.releaseByteIndex();
+            artistNames.releaseByteIndex();
+            albumNames.releaseByteIndex();
+            trackUris.releaseByteIndex();
+            reasons.releaseByteIndex();
+            return new StreamingHistoryDataset(this, 1);
+        }
+
+        private int albumArtistCode(int albumNameCode, int artistNameCode) {
+            long key = ((long) albumNameCode << 32) | (artistNameCode & 0xFFFFFFFFL);
+            int existing = albumArtistIndex.putIfAbsent(key, albumArtistCount);
+            if (existing >= 0) {
+                return existing;
+            }
+            if (albumArtistCount == albumArtistAlbumCodes.length) {
+                albumArtistAlbumCodes = Arrays.copyOf(albumArtistAlbumCodes, albumArtistCount * 2);
+                albumArtistArtistCodes = Arrays.copyOf(albumArtistArtistCodes, albumArtistCount * 2);
+            }
+            albumArtistAlbumCodes[albumArtistCount] = albumNameCode;
+            albumArtistArtistCodes[albumArtistCount] = artistNameCode;
+            return albumArtistCount++;
+        }
+
+        private void grow() {
+            int capacity = epochSeconds.length * 2;
+            epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+            msPlayed = Arrays.copyOf(msPlayed, capacity);
+            trackNameCodes = Arrays.copyOf(trackNameCodes, capacity);
+            artistNameCodes = Arrays.copyOf(artistNameCodes, capacity);
+            albumNameCodes = Arrays.copyOf(albumNameCodes, capacity);
+            trackUriCodes = Arrays.copyOf(trackUriCodes, capacity);
+            reasonStartCodes = Arrays.copyOf(reasonStartCodes, capacity);
+            reasonEndCodes = Arrays.copyOf(reasonEndCodes, capacity);
+            albumArtistCodes = Arrays.copyOf(albumArtistCodes, capacity);
+        }
+    }
+}
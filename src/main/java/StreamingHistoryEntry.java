@@ -7,16 +7,31 @@ public record StreamingHistoryEntry(LocalDateTime ts,
                                     String trackName, String artistName, String albumName,
                                     String spotifyTrackUri, String reasonStart, String reasonEnd) {
 
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
     // Record constructor with special parsing of ts and msPlayed
     public StreamingHistoryEntry(String ts,
                                  String msPlayed,
                                  String trackName, String artistName, String albumName,
                                  String spotifyTrackUri, String reasonStart, String reasonEnd) {
         this(
-                LocalDateTime.parse(ts, DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC)), // Parse the timestamp
+                LocalDateTime.parse(ts, TIMESTAMP_FORMAT), // Parse the timestamp
                 Long.parseLong(msPlayed) / 1000 / 60, // convert
                 trackName, artistName, albumName,
                 spotifyTrackUri, reasonStart, reasonEnd
         );
     }
-}
\ No newline at end of file
+
+    // Rough retained size: the record, its LocalDateTime (with date and time parts) and six separately allocated Strings
+    public long estimatedRetainedBytes() {
+        return 56 + 72
+                + estimatedStringBytes(trackName) + estimatedStringBytes(artistName) + estimatedStringBytes(albumName)
+                + estimatedStringBytes(spotifyTrackUri) + estimatedStringBytes(reasonStart) + estimatedStringBytes(reasonEnd);
+    }
+
+    private static long estimatedStringBytes(String value) {
+        // String header and fields plus the backing byte array
+        return value == null ? 0 : 40 + value.length();
+    }
+}
@@ -0,0 +1,87 @@
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+// Streams one Streaming_History_Audio_*.json file (a JSON array of plays) into a dataset builder with
+// Gson's token API, so only the current play is ever materialised. Null metadata, as on podcast
+// episodes, becomes an empty string like in the CSV conversion.
+public class StreamingHistoryJsonReader {
+    private final JsonReader reader;
+
+    public StreamingHistoryJsonReader(InputStream in) {
+        this.reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public StreamingHistoryDataset read() throws IOException {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        readInto(builder);
+        return builder.build();
+    }
+
+    public void readInto(StreamingHistoryDataset.Builder builder) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readPlay(builder);
+        }
+        reader.endArray();
+    }
+
+    private void readPlay(StreamingHistoryDataset.Builder builder) throws IOException {
+        String ts = null;
+        long msPlayed = 0;
+        String trackName = "";
+        String artistName = "";
+        String albumName = "";
+        String spotifyTrackUri = "";
+        String reasonStart = "";
+        String reasonEnd = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "ts" -> ts = nextString();
+                case "ms_played" -> msPlayed = nextLong();
+                case "master_metadata_track_name" -> trackName = nextString();
+                case "master_metadata_album_artist_name" -> artistName = nextString();
+                case "master_metadata_album_album_name" -> albumName = nextString();
+                case "spotify_track_uri" -> spotifyTrackUri = nextString();
+                case "reason_start" -> reasonStart = nextString();
+                case "reason_end" -> reasonEnd = nextString();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (ts == null || ts.isEmpty()) {
+            throw new IOException("Play without ts at " + reader.getPath());
+        }
+        builder.add(parseTimestamp(ts), msPlayed,
+                trackName, artistName, albumName, spotifyTrackUri, reasonStart, reasonEnd);
+    }
+
+    private String nextString() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "";
+        }
+        return reader.nextString();
+    }
+
+    private long nextLong() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextLong();
+    }
+
+    private static long parseTimestamp(String ts) {
+        long epochSecond = EpochTime.parseUtcTimestamp(ts);
+        return epochSecond != Long.MIN_VALUE ? epochSecond : Instant.parse(ts).getEpochSecond();
+    }
+}
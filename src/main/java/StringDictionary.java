@@ -0,0 +1,166 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Maps repeated strings (track names, URIs, reasons, ...) to dense int codes in first-seen order
+public class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private String[] values = new String[64];
+    private int size;
+
+    // Read-only dictionary backed by a snapshot: UTF-8 bytes with (size + 1) offsets, decoded on first use
+    private IntBuffer mappedOffsets;
+    private ByteBuffer mappedBytes;
+
+    // UTF-8 index used while parsing, so repeated values are found without decoding a String per row
+    private int[] byteTable;
+    private byte[][] valueBytes;
+    private int indexedCount;
+
+    // Values of a snapshot, see DatasetSnapshot. Strings are only created for the codes that are decoded.
+    static StringDictionary mapped(int size, IntBuffer offsets, ByteBuffer bytes) {
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.values = new String[size];
+        dictionary.size = size;
+        dictionary.mappedOffsets = offsets;
+        dictionary.mappedBytes = bytes;
+        return dictionary;
+    }
+
+    public int encode(String value) {
+        if (mappedBytes != null) {
+            throw new UnsupportedOperationException("Dictionary of a snapshot is read-only");
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+
+    // Same as encode(String) for the UTF-8 bytes in the given range, only allocates for values not seen before
+    public int encode(byte[] bytes, int offset, int length) {
+        if (byteTable == null) {
+            rebuildByteIndex(64);
+        }
+
+        int mask = byteTable.length - 1;
+        int slot = hash(bytes, offset, length) & mask;
+        for (int entry = byteTable[slot]; entry != 0; entry = byteTable[slot]) {
+            byte[] candidate = valueBytes[entry - 1];
+            if (Arrays.equals(candidate, 0, candidate.length, bytes, offset, offset + length)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Unknown to the byte index, the value may still have been encoded as a String
+        int code = encode(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        if (code >= valueBytes.length) {
+            valueBytes = Arrays.copyOf(valueBytes, Math.max(values.length, code + 1));
+        }
+        valueBytes[code] = Arrays.copyOfRange(bytes, offset, offset + length);
+        byteTable[slot] = code + 1;
+        if (++indexedCount * 2 > byteTable.length) {
+            rebuildByteIndex(byteTable.length * 2);
+        }
+        return code;
+    }
+
+    // Drops the parse-time byte index once no more rows are added
+    public void releaseByteIndex() {
+        byteTable = null;
+        valueBytes = null;
+        indexedCount = 0;
+    }
+
+    public String decode(int code) {
+        String value = values[code];
+        if (value == null && mappedBytes != null) {
+            // Racing threads decode the same immutable String, either copy is fine to keep
+            int start = mappedOffsets.get(code);
+            byte[] bytes = new byte[mappedOffsets.get(code + 1) - start];
+            mappedBytes.get(start, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            values[code] = value;
+        }
+        return value;
+    }
+
+    // Returns -1 if the value was never encoded
+    public int codeOf(String value) {
+        if (mappedBytes != null) {
+            synchronized (codes) {
+                if (codes.isEmpty()) {
+                    for (int code = 0; code < size; code++) {
+                        codes.put(decode(code), code);
+                    }
+                }
+            }
+        }
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    // UTF-8 bytes of a value, for writing snapshots
+    byte[] encodedBytes(int code) {
+        return decode(code).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long estimatedRetainedBytes() {
+        long bytes = 64 + 4L * values.length;
+        if (mappedBytes != null) {
+            // Only the decoded values are on the heap, count them at their average length
+            return bytes + 40L * size + mappedBytes.capacity() / 4;
+        }
+        for (int i = 0; i < size; i++) {
+            // String with its byte array, plus the HashMap node and boxed code
+            bytes += 40 + values[i].length() + 48;
+        }
+        return bytes;
+    }
+
+    private void rebuildByteIndex(int minCapacity) {
+        int capacity = minCapacity;
+        while (size * 2 >= capacity) {
+            capacity *= 2;
+        }
+        byte[][] previous = valueBytes;
+        byteTable = new int[capacity];
+        valueBytes = new byte[Math.max(values.length, size)][];
+        indexedCount = 0;
+        int mask = capacity - 1;
+        for (int code = 0; code < size; code++) {
+            byte[] bytes = previous != null && code < previous.length && previous[code] != null
+                    ? previous[code]
+                    : values[code].getBytes(StandardCharsets.UTF_8);
+            int slot = hash(bytes, 0, bytes.length) & mask;
+            while (byteTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            byteTable[slot] = code + 1;
+            valueBytes[code] = bytes;
+            indexedCount++;
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
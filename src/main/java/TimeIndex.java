@@ -0,0 +1,183 @@
+import java.util.Arrays;
+
+// Rows ordered by timestamp, with the offset of each UTC day in that order. Date, hour and session queries
+// binary-search to their slice instead of scanning every row. Built once at ingestion, like PlayRollups.
+// Positions are offsets into the time order; row(position) maps them back to dataset rows.
+public final class TimeIndex {
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    private final StreamingHistoryDataset dataset;
+    // Row numbers sorted by timestamp, rows with equal timestamps in row order
+    private final int[] rowsByTime;
+    private final long firstDay;
+    // Position of the first play of each day since firstDay, plus one end entry
+    private final int[] dayStarts;
+
+    private TimeIndex(StreamingHistoryDataset dataset, int[] rowsByTime, long firstDay, int[] dayStarts) {
+        this.dataset = dataset;
+        this.rowsByTime = rowsByTime;
+        this.firstDay = firstDay;
+        this.dayStarts = dayStarts;
+    }
+
+    static TimeIndex build(StreamingHistoryDataset dataset) {
+        return of(dataset, sortedRows(dataset, 0, dataset.size()));
+    }
+
+    // This index plus rows [fromRow, size) of a dataset that extends the one it was built for (see
+    // StreamingHistoryDataset.append): only the new rows are sorted, then merged into the existing order
+    TimeIndex withRows(StreamingHistoryDataset dataset, int fromRow) {
+        int[] added = sortedRows(dataset, fromRow, dataset.size());
+        int[] merged = new int[rowsByTime.length + added.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            // Ties go to the existing rows, which all come first in row order
+            if (j == added.length || i < rowsByTime.length
+                    && dataset.epochSecond(rowsByTime[i]) <= dataset.epochSecond(added[j])) {
+                merged[k] = rowsByTime[i++];
+            } else {
+                merged[k] = added[j++];
+            }
+        }
+        return of(dataset, merged);
+    }
+
+    private static TimeIndex of(StreamingHistoryDataset dataset, int[] rowsByTime) {
+        int size = rowsByTime.length;
+        if (size == 0) {
+            return new TimeIndex(dataset, rowsByTime, 0, new int[1]);
+        }
+        long firstDay = EpochTime.epochDay(dataset.epochSecond(rowsByTime[0]));
+        long lastDay = EpochTime.epochDay(dataset.epochSecond(rowsByTime[size - 1]));
+        int[] dayStarts = new int[(int) (lastDay - firstDay) + 2];
+        int position = 0;
+        for (int day = 0; day < dayStarts.length - 1; day++) {
+            long dayEnd = (firstDay + day + 1) * SECONDS_PER_DAY;
+            dayStarts[day] = position;
+            while (position < size && dataset.epochSecond(rowsByTime[position]) < dayEnd) {
+                position++;
+            }
+        }
+        dayStarts[dayStarts.length - 1] = size;
+        return new TimeIndex(dataset, rowsByTime, firstDay, dayStarts);
+    }
+
+    // Rows [from, to) by timestamp, equal timestamps in row order. Exports are nearly sorted already, so
+    // this only sorts when they are not. Seconds since the earliest play and the row number are packed
+    // into one long, so a primitive sort does it for any span up to 2^32 seconds.
+    private static int[] sortedRows(StreamingHistoryDataset dataset, int from, int to) {
+        int[] rows = new int[to - from];
+        boolean sorted = true;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row = from; row < to; row++) {
+            rows[row - from] = row;
+            long epochSecond = dataset.epochSecond(row);
+            if (row > from && epochSecond < dataset.epochSecond(row - 1)) {
+                sorted = false;
+            }
+            min = Math.min(min, epochSecond);
+            max = Math.max(max, epochSecond);
+        }
+        if (sorted) {
+            return rows;
+        }
+        if (max - min < (1L << 32)) {
+            long[] keys = new long[rows.length];
+            for (int row = from; row < to; row++) {
+                keys[row - from] = (dataset.epochSecond(row) - min) << 31 | row;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = (int) (keys[i] & Integer.MAX_VALUE);
+            }
+            return rows;
+        }
+        Integer[] boxed = new Integer[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            boxed[i] = from + i;
+        }
+        Arrays.sort(boxed, (a, b) -> Long.compare(dataset.epochSecond(a), dataset.epochSecond(b)));
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = boxed[i];
+        }
+        return rows;
+    }
+
+    public int size() {
+        return rowsByTime.length;
+    }
+
+    public int row(int position) {
+        return rowsByTime[position];
+    }
+
+    public long epochSecond(int position) {
+        return dataset.epochSecond(rowsByTime[position]);
+    }
+
+    // First position with a timestamp at or after epochSecond, size() if there is none
+    public int positionOf(long epochSecond) {
+        // The day gives the window, the binary search only covers that day's plays
+        long day = EpochTime.epochDay(epochSecond);
+        int low = dayStart(day);
+        int high = dayEnd(day);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochSecond(mid) < epochSecond) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First position of the day, or of the next day with plays
+    public int dayStart(long epochDay) {
+        long day = epochDay - firstDay;
+        if (day < 0) {
+            return 0;
+        }
+        return day >= dayStarts.length ? rowsByTime.length : dayStarts[(int) day];
+    }
+
+    // End (exclusive) position of the day
+    public int dayEnd(long epochDay) {
+        return dayStart(epochDay + 1);
+    }
+
+    public long firstDay() {
+        return firstDay;
+    }
+
+    // Last day with a play; less than firstDay() for an empty dataset
+    public long lastDay() {
+        return firstDay + dayStarts.length - 2;
+    }
+
+    // Positions [start, end) of the listening session containing the play at position: consecutive plays
+    // where each one starts at most gapSeconds after the previous one ended. Timestamps are play ends.
+    public int[] session(int position, long gapSeconds) {
+        int start = position;
+        while (start > 0 && startSecond(start) - epochSecond(start - 1) <= gapSeconds) {
+            start--;
+        }
+        int end = position + 1;
+        while (end < rowsByTime.length && startSecond(end) - epochSecond(end - 1) <= gapSeconds) {
+            end++;
+        }
+        return new int[] {start, end};
+    }
+
+    // When the play at position started, from its end timestamp and duration
+    public long startSecond(int position) {
+        int row = rowsByTime[position];
+        return dataset.epochSecond(row) - dataset.msPlayed(row) / 1000;
+    }
+
+    public long estimatedRetainedBytes() {
+        return 64 + 4L * rowsByTime.length + 4L * dayStarts.length;
+    }
+}
@@ -1,6 +1,8 @@
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -9,6 +11,10 @@ public class TopAlbumsAnalysis implements Analysis {
     private final Integer month;
     private final static Integer limit = 10;
 
+    // Most minutes first, ties by ascending key so results are deterministic
+    private static final Comparator<Map.Entry<String, Long>> BY_MINUTES =
+            Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+
     public TopAlbumsAnalysis() {
         this.year = null;
         this.month = null;
@@ -19,7 +25,7 @@ public class TopAlbumsAnalysis implements Analysis {
         this.month = (month == null || month == -1) ? null : month;
     }
     @Override
-    public List<String> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
+    public CompletableFuture<List<String>> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
         Stream<StreamingHistoryEntry> filteredEntries = entries.stream();
 
         if (year != null) {
@@ -37,8 +43,19 @@ public class TopAlbumsAnalysis implements Analysis {
                 ));
 
         List<Map.Entry<String, Long>> sortedAlbums = albumPlayCounts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(limit)
+                .collect(TopK.collector(limit, BY_MINUTES));
+
+        return api.getAlbumUris(sortedAlbums);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        PlayRollups.Totals minutesByAlbum = dataset.rollups().totals(PlayRollups.Dimension.ALBUM, year, month);
+        int[] top = TopK.largest(minutesByAlbum.minutes(), minutesByAlbum.size(), limit, (a, b) ->
+                dataset.albumArtistKey(minutesByAlbum.keys()[a]).compareTo(dataset.albumArtistKey(minutesByAlbum.keys()[b])));
+
+        List<Map.Entry<String, Long>> sortedAlbums = Arrays.stream(top)
+                .mapToObj(i -> Map.entry(dataset.albumArtistKey(minutesByAlbum.keys()[i]), minutesByAlbum.minutes()[i]))
                 .collect(Collectors.toList());
 
         return api.getAlbumUris(sortedAlbums);
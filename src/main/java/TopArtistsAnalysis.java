@@ -1,6 +1,8 @@
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -9,6 +11,10 @@ public class TopArtistsAnalysis implements Analysis {
     private final Integer month;
     private final static Integer limit = 10;
 
+    // Most minutes first, ties by ascending key so results are deterministic
+    private static final Comparator<Map.Entry<String, Long>> BY_MINUTES =
+            Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+
     public TopArtistsAnalysis() {
         this.year = null;
         this.month = null;
@@ -20,7 +26,7 @@ public class TopArtistsAnalysis implements Analysis {
     }
 
     @Override
-    public List<String> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
+    public CompletableFuture<List<String>> analyze(List<StreamingHistoryEntry> entries, SpotifyAPIService api) {
         Stream<StreamingHistoryEntry> filteredEntries = entries.stream();
 
         if (year != null) {
@@ -38,11 +44,29 @@ public class TopArtistsAnalysis implements Analysis {
                 ));
 
         List<String> topArtists = artistPlayCounts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(limit)
+                .collect(TopK.collector(limit, BY_MINUTES))
+                .stream()
                 .map(Map.Entry::getKey)
                 .toList();
 
         return api.getArtistIds(topArtists);
     }
+
+    @Override
+    public CompletableFuture<List<String>> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        PlayRollups.Totals minutesByArtist = dataset.rollups().totals(PlayRollups.Dimension.ARTIST, year, month);
+
+        int[] top = TopK.largest(minutesByArtist.minutes(), minutesByArtist.size(), limit, (a, b) ->
+                artistName(dataset, minutesByArtist, a).compareTo(artistName(dataset, minutesByArtist, b)));
+
+        List<String> topArtists = Arrays.stream(top)
+                .mapToObj(i -> artistName(dataset, minutesByArtist, i))
+                .toList();
+
+        return api.getArtistIds(topArtists);
+    }
+
+    private static String artistName(StreamingHistoryDataset dataset, PlayRollups.Totals totals, int index) {
+        return dataset.artistNames().decode(totals.keys()[index]);
+    }
 }
\ No newline at end of file
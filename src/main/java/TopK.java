@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collector;
+
+// Bounded top-k selection: a size-k min-heap keeps the best candidates seen so far, O(n log k) instead of
+// sorting all n groups to keep the first few.
+public final class TopK {
+
+    @FunctionalInterface
+    public interface IndexComparator {
+        int compare(int a, int b);
+    }
+
+    private TopK() {
+    }
+
+    // Indexes of the k largest values, largest first. Equal values are ordered by ascending index.
+    public static int[] largest(long[] values, int size, int k) {
+        return largest(values, size, k, Integer::compare);
+    }
+
+    // Indexes of the k largest values, largest first. Equal values are ordered by tieBreak, smallest first.
+    public static int[] largest(long[] values, int size, int k, IndexComparator tieBreak) {
+        int capacity = Math.min(k, size);
+        if (capacity <= 0) {
+            return new int[0];
+        }
+
+        // Min-heap by rank: heap[0] is the worst of the current candidates
+        int[] heap = new int[capacity];
+        int heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (heapSize < capacity) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, values, tieBreak);
+            } else if (ranksAbove(i, heap[0], values, tieBreak)) {
+                heap[0] = i;
+                siftDown(heap, heapSize, values, tieBreak);
+            }
+        }
+
+        // Pop the worst repeatedly, filling the result from the back
+        int[] result = new int[heapSize];
+        for (int last = heapSize - 1; last >= 0; last--) {
+            result[last] = heap[0];
+            heap[0] = heap[last];
+            siftDown(heap, last, values, tieBreak);
+        }
+        return result;
+    }
+
+    // Collects the k greatest elements under order, greatest first
+    public static <T> Collector<T, ?, List<T>> collector(int k, Comparator<? super T> order) {
+        return Collector.of(
+                () -> new PriorityQueue<T>(order),
+                (heap, element) -> offer(heap, element, k, order),
+                (left, right) -> {
+                    for (T element : right) {
+                        offer(left, element, k, order);
+                    }
+                    return left;
+                },
+                heap -> {
+                    List<T> result = new ArrayList<>(heap);
+                    result.sort(order.reversed());
+                    return result;
+                });
+    }
+
+    private static <T> void offer(PriorityQueue<T> heap, T element, int k, Comparator<? super T> order) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (k > 0 && order.compare(element, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    private static boolean ranksAbove(int a, int b, long[] values, IndexComparator tieBreak) {
+        if (values[a] != values[b]) {
+            return values[a] > values[b];
+        }
+        return tieBreak.compare(a, b) < 0;
+    }
+
+    private static void siftUp(int[] heap, int position, long[] values, IndexComparator tieBreak) {
+        int element = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!ranksAbove(heap[parent], element, values, tieBreak)) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = element;
+    }
+
+    private static void siftDown(int[] heap, int size, long[] values, IndexComparator tieBreak) {
+        if (size == 0) {
+            return;
+        }
+        int element = heap[0];
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && ranksAbove(heap[child], heap[child + 1], values, tieBreak)) {
+                child++;
+            }
+            if (!ranksAbove(element, heap[child], values, tieBreak)) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = element;
+    }
+}
@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -9,6 +10,10 @@ public class TopSongsAnalysis implements Analysis {
     private final Integer month;
     private static final Integer limit = 25;
 
+    // Most minutes first, ties by ascending key so results are deterministic
+    private static final Comparator<Map.Entry<String, Long>> BY_MINUTES =
+            Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+
     public TopSongsAnalysis() {
         this.year = null;
         this.month = null;
@@ -37,9 +42,25 @@ public class TopSongsAnalysis implements Analysis {
                         Collectors.summingLong(StreamingHistoryEntry::minutesPlayed)
                 ))
                 .entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(limit)
+                .collect(TopK.collector(limit, BY_MINUTES))
+                .stream()
                 .map(Map.Entry::getKey)
                 .collect(Collectors.toList());
     }
-}
+
+    @Override
+    public List<String> analyze(StreamingHistoryDataset dataset, SpotifyAPIService api) {
+        PlayRollups.Totals minutesByTrack = dataset.rollups().totals(PlayRollups.Dimension.TRACK, year, month);
+
+        int[] top = TopK.largest(minutesByTrack.minutes(), minutesByTrack.size(), limit, (a, b) ->
+                trackUri(dataset, minutesByTrack, a).compareTo(trackUri(dataset, minutesByTrack, b)));
+
+        return Arrays.stream(top)
+                .mapToObj(i -> trackUri(dataset, minutesByTrack, i))
+                .collect(Collectors.toList());
+    }
+
+    private static String trackUri(StreamingHistoryDataset dataset, PlayRollups.Totals totals, int index) {
+        return dataset.trackUris().decode(totals.keys()[index]);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,285 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Sketches of a dataset's plays per week (Monday to Sunday, UTC), stored next to its snapshot. Weeks of
+// different datasets merge into statistics across all uploads, like the most played artists of a week,
+// without opening any dataset: a request reads one small record per dataset. Layout, big-endian:
+//
+//   header   int magic "SPSK", int version, int dataset version, int weekCount
+//   table    weekCount x (long first epoch day, long offset, int length), by day
+//   weeks    long plays, long msPlayed, HyperLogLog tracks, artists, albums, SpaceSaving tracks, artists
+//
+// Plays without a track URI or artist (episodes, local files) are left out of the sketches.
+public final class WeeklySketches {
+    private static final Logger LOG = LoggerFactory.getLogger(WeeklySketches.class);
+    private static final int MAGIC = 0x5350534B; // "SPSK"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int TABLE_ENTRY_BYTES = 20;
+
+    private WeeklySketches() {
+    }
+
+    public static final class Week {
+        private long plays;
+        private long msPlayed;
+        private final HyperLogLog tracks;
+        private final HyperLogLog artists;
+        private final HyperLogLog albums;
+        private final SpaceSaving topTracks;
+        private final SpaceSaving topArtists;
+
+        private Week(long plays, long msPlayed, HyperLogLog tracks, HyperLogLog artists, HyperLogLog albums,
+                     SpaceSaving topTracks, SpaceSaving topArtists) {
+            this.plays = plays;
+            this.msPlayed = msPlayed;
+            this.tracks = tracks;
+            this.artists = artists;
+            this.albums = albums;
+            this.topTracks = topTracks;
+            this.topArtists = topArtists;
+        }
+
+        public static Week empty() {
+            return new Week(0, 0, new HyperLogLog(), new HyperLogLog(), new HyperLogLog(), new SpaceSaving(),
+                    new SpaceSaving());
+        }
+
+        public void merge(Week other) {
+            plays += other.plays;
+            msPlayed += other.msPlayed;
+            tracks.merge(other.tracks);
+            artists.merge(other.artists);
+            albums.merge(other.albums);
+            topTracks.merge(other.topTracks);
+            topArtists.merge(other.topArtists);
+        }
+
+        public Stats stats(LocalDate weekStart, int datasets, int limit) {
+            return new Stats(weekStart.toString(), datasets, plays, msPlayed / 60_000,
+                    tracks.estimate(), artists.estimate(), albums.estimate(),
+                    Math.round(tracks.relativeError() * 10_000) / 10_000.0,
+                    topArtists.top(limit).stream().map(c -> new Top(c.label(), null, c.count(), c.error())).toList(),
+                    topTracks.top(limit).stream().map(c -> new Top(c.label(), c.key(), c.count(), c.error())).toList());
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(plays);
+            out.writeLong(msPlayed);
+            tracks.writeTo(out);
+            artists.writeTo(out);
+            albums.writeTo(out);
+            topTracks.writeTo(out);
+            topArtists.writeTo(out);
+        }
+
+        private static Week readFrom(DataInputStream in) throws IOException {
+            return new Week(in.readLong(), in.readLong(), HyperLogLog.readFrom(in), HyperLogLog.readFrom(in),
+                    HyperLogLog.readFrom(in), SpaceSaving.readFrom(in), SpaceSaving.readFrom(in));
+        }
+    }
+
+    // Distinct counts are estimates within distinctRelativeError (one standard error); a top entry's plays
+    // may be overcounted by up to its maxOverestimate
+    public record Stats(String weekStart, int datasets, long plays, long minutesPlayed, long uniqueSongs,
+                        long artists, long albums, double distinctRelativeError, List<Top> topArtists,
+                        List<Top> topSongs) {
+    }
+
+    public record Top(String name, String spotifyTrackUri, long plays, long maxOverestimate) {
+    }
+
+    // Monday of the week containing the day; epoch day 0 was a Thursday
+    public static long weekStart(long epochDay) {
+        return epochDay - Math.floorMod(epochDay + 3, 7);
+    }
+
+    // Builds the sketches one week at a time from the time index and writes them to a temporary file next
+    // to the target, moved into place when complete
+    public static void write(StreamingHistoryDataset dataset, Path file) throws IOException {
+        TimeIndex index = dataset.timeIndex();
+        long[] trackHashes = hashes(dataset.trackUris());
+        long[] artistHashes = hashes(dataset.artistNames());
+        long[] albumHashes = hashes(dataset.albumNames());
+        int noTrack = dataset.trackUris().codeOf("");
+        int noArtist = dataset.artistNames().codeOf("");
+
+        // Plays per code within the current week, reset through the touched lists
+        long[] trackPlays = new long[dataset.trackUris().size()];
+        long[] artistPlays = new long[dataset.artistNames().size()];
+        int[] trackRows = new int[trackPlays.length];
+        int[] touchedTracks = new int[trackPlays.length];
+        int[] touchedArtists = new int[artistPlays.length];
+
+        List<Long> days = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        for (long week = weekStart(index.firstDay()); week <= index.lastDay(); week += 7) {
+            int from = index.dayStart(week);
+            int to = index.dayStart(week + 7);
+            if (from == to) {
+                continue;
+            }
+            long plays = 0;
+            long msPlayed = 0;
+            HyperLogLog distinctTracks = new HyperLogLog();
+            HyperLogLog distinctArtists = new HyperLogLog();
+            HyperLogLog distinctAlbums = new HyperLogLog();
+            int tracks = 0;
+            int artists = 0;
+            for (int position = from; position < to; position++) {
+                int row = index.row(position);
+                plays++;
+                msPlayed += dataset.msPlayed(row);
+                int track = dataset.trackUriCode(row);
+                if (track != noTrack) {
+                    distinctTracks.addHash(trackHashes[track]);
+                    if (trackPlays[track]++ == 0) {
+                        touchedTracks[tracks++] = track;
+                        trackRows[track] = row;
+                    }
+                }
+                int artist = dataset.artistNameCode(row);
+                if (artist != noArtist) {
+                    distinctArtists.addHash(artistHashes[artist]);
+                    distinctAlbums.addHash(albumHashes[dataset.albumNameCode(row)]);
+                    if (artistPlays[artist]++ == 0) {
+                        touchedArtists[artists++] = artist;
+                    }
+                }
+            }
+
+            // Exact counts for this dataset, so its sketches start without error
+            List<SpaceSaving.Counter> trackCounts = new ArrayList<>(tracks);
+            for (int i = 0; i < tracks; i++) {
+                int track = touchedTracks[i];
+                trackCounts.add(new SpaceSaving.Counter(dataset.trackUris().decode(track),
+                        dataset.trackNames().decode(dataset.trackNameCode(trackRows[track])), trackPlays[track], 0));
+                trackPlays[track] = 0;
+            }
+            List<SpaceSaving.Counter> artistCounts = new ArrayList<>(artists);
+            for (int i = 0; i < artists; i++) {
+                int artist = touchedArtists[i];
+                String name = dataset.artistNames().decode(artist);
+                artistCounts.add(new SpaceSaving.Counter(name, name, artistPlays[artist], 0));
+                artistPlays[artist] = 0;
+            }
+            Week sketch = new Week(plays, msPlayed, distinctTracks, distinctArtists, distinctAlbums,
+                    SpaceSaving.ofCounts(SpaceSaving.DEFAULT_CAPACITY, trackCounts),
+                    SpaceSaving.ofCounts(SpaceSaving.DEFAULT_CAPACITY, artistCounts));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                sketch.writeTo(out);
+            }
+            days.add(week);
+            payloads.add(bytes.toByteArray());
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dataset.version());
+                out.writeInt(payloads.size());
+                long offset = HEADER_BYTES + (long) TABLE_ENTRY_BYTES * payloads.size();
+                for (int i = 0; i < payloads.size(); i++) {
+                    out.writeLong(days.get(i));
+                    out.writeLong(offset);
+                    out.writeInt(payloads.get(i).length);
+                    offset += payloads.get(i).length;
+                }
+                for (byte[] payload : payloads) {
+                    out.write(payload);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // The week starting on the given Monday, null if the dataset has no plays in it
+    public static Week read(Path file, long weekStart) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+            if (in.length() < HEADER_BYTES || in.readInt() != MAGIC) {
+                throw new IOException("Not a sketch file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sketch file (version " + version + "): " + file);
+            }
+            in.readInt();
+            int weeks = in.readInt();
+            if (weeks < 0 || HEADER_BYTES + (long) TABLE_ENTRY_BYTES * weeks > in.length()) {
+                throw new IOException("Truncated sketch file: " + file);
+            }
+            // Binary search over the table, which is ordered by day
+            int low = 0;
+            int high = weeks - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                in.seek(HEADER_BYTES + (long) TABLE_ENTRY_BYTES * mid);
+                long day = in.readLong();
+                if (day < weekStart) {
+                    low = mid + 1;
+                } else if (day > weekStart) {
+                    high = mid - 1;
+                } else {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > in.length()) {
+                        throw new IOException("Truncated sketch file: " + file);
+                    }
+                    byte[] payload = new byte[length];
+                    in.seek(offset);
+                    in.readFully(payload);
+                    return Week.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+                }
+            }
+            return null;
+        }
+    }
+
+    // One week merged across the sketch files of several datasets, counting those with plays in it. A file
+    // that cannot be read is left out rather than failing the whole week.
+    public static Stats stats(List<Path> files, LocalDate date, int limit) {
+        long weekStart = weekStart(date.toEpochDay());
+        Week merged = Week.empty();
+        int datasets = 0;
+        for (Path file : files) {
+            try {
+                Week week = read(file, weekStart);
+                if (week != null) {
+                    merged.merge(week);
+                    datasets++;
+                }
+            } catch (IOException e) {
+                Metrics.ERRORS.labels("sketch-read").inc();
+                LOG.warn("Error reading sketches {}: {}", file, e.getMessage());
+            }
+        }
+        return merged.stats(LocalDate.ofEpochDay(weekStart), datasets, limit);
+    }
+
+    private static long[] hashes(StringDictionary dictionary) {
+        long[] hashes = new long[dictionary.size()];
+        for (int code = 0; code < hashes.length; code++) {
+            hashes[code] = HyperLogLog.hash(dictionary.decode(code));
+        }
+        return hashes;
+    }
+}
@@ -10,41 +10,73 @@ const resultsContent = document.getElementById('resultsContent');
 const playedSongsBtn = document.getElementById('playedSongsBtn');
 const dateInput = document.getElementById('dateInput');
 
-async function fetchData(endpoint, year, month, date) {
+let datasetId = null;
+
+// Upload the file once, later requests only reference the returned dataset ID
+async function uploadDataset() {
     const file = fileInput.files[0];
     if (!file) {
         alert('Please select a CSV file.');
-        return;
+        return null;
     }
 
     const formData = new FormData();
     formData.append('file', file);
 
-    let url = endpoint;
+    const response = await fetch('/datasets', {
+        method: 'POST',
+        body: formData
+    });
+
+    if (!response.ok) {
+        const errorText = await response.text();
+        alert(`Error: ${response.status} - ${errorText}`);
+        return null;
+    }
+
+    const dataset = await response.json();
+    datasetId = dataset.id;
+    return datasetId;
+}
+
+async function fetchDatasetAnalysis(path, isRetry = false) {
+    const id = datasetId || await uploadDataset();
+    if (!id) {
+        return;
+    }
+
+    const response = await fetch(`/datasets/${id}/analyze${path}`);
+
+    if (response.status === 404 && !isRetry) {
+        // Server no longer holds the dataset, upload it again
+        datasetId = null;
+        return fetchDatasetAnalysis(path, true);
+    }
+
+    if (response.ok) {
+        const data = await response.json();
+        console.log(data);
+        displayResults(data);
+    } else {
+        const errorText = await response.text();
+        alert(`Error: ${response.status} - ${errorText}`);
+    }
+}
+
+async function fetchData(endpoint, year, month, date) {
+    let path = endpoint;
     if (year) {
-        url += `/year/${year}`;
+        path += `/year/${year}`;
     }
     if (month) {
-        url += `/month/${month}`;
+        path += `/month/${month}`;
     }
     if (date) {
-        url += `/date/${date}`;
+        path += `/date/${date}`;
     }
 
     try {
-        const response = await fetch(url, {
-            method: 'POST',
-            body: formData
-        });
-
-        if (response.ok) {
-            const data = await response.json();
-            console.log(data);
-            displayResults(data);
-        } else {
-            const errorText = await response.text();
-            alert(`Error: ${response.status} - ${errorText}`);
-        }
+        await fetchDatasetAnalysis(path);
     } catch (error) {
         console.error('Error:', error);
         alert('An error occurred while processing the request.');
@@ -52,29 +84,8 @@ async function fetchData(endpoint, year, month, date) {
 }
 
 async function fetchPlayedSongs(date) {
-    const file = fileInput.files[0];
-    if (!file) {
-        alert('Please select a CSV file.');
-        return;
-    }
-
-    const formData = new FormData();
-    formData.append('file', file);
-
     try {
-        const response = await fetch(`/analyze/played-songs/date/${date}`, {
-            method: 'POST',
-            body: formData
-        });
-
-        if (response.ok) {
-            const data = await response.json();
-            console.log(data);
-            displayResults(data);
-        } else {
-            const errorText = await response.text();
-            alert(`Error: ${response.status} - ${errorText}`);
-        }
+        await fetchDatasetAnalysis(`/played-songs/date/${date}`);
     } catch (error) {
         console.error('Error:', error);
         alert('An error occurred while processing the request.');
@@ -147,17 +158,21 @@ function displayPlayedSongs(data) {
     resultsDiv.style.display = 'block';
 }
 
-topSongsBtn.addEventListener('click', () => fetchData('/analyze/top-songs'));
-topArtistsBtn.addEventListener('click', () => fetchData('/analyze/top-artists'));
-topAlbumsBtn.addEventListener('click', () => fetchData('/analyze/top-albums'));
+fileInput.addEventListener('change', () => {
+    datasetId = null;
+});
+
+topSongsBtn.addEventListener('click', () => fetchData('/top-songs'));
+topArtistsBtn.addEventListener('click', () => fetchData('/top-artists'));
+topAlbumsBtn.addEventListener('click', () => fetchData('/top-albums'));
 topSongsYearBtn.addEventListener('click', () => {
     const year = document.getElementById('yearInput').value;
-    fetchData('/analyze/top-songs', year);
+    fetchData('/top-songs', year);
 });
 topSongsYearMonthBtn.addEventListener('click', () => {
     const year = document.getElementById('yearInput').value;
     const month = document.getElementById('monthInput').value;
-    fetchData('/analyze/top-songs', year, month);
+    fetchData('/top-songs', year, month);
 });
 playedSongsBtn.addEventListener('click', () => {
     const date = dateInput.value;
@@ -0,0 +1,27 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DashboardAnalysisTest {
+    // Year and month narrow the Top* results only, and the filters entry says so per result
+    @Test
+    void reportsTheFiltersEachResultWasComputedWith() throws IOException {
+        StreamingHistoryDataset dataset = TestData.dataset();
+        DashboardAnalysis dashboard = new DashboardAnalysis(
+                List.of("top-songs", "explore", "listening-habits", "played-songs"), 2016, 2, "2016-02-03");
+        Map<?, ?> results = (Map<?, ?>) TestData.result(dashboard, dataset);
+
+        assertEquals(TestData.result(new TopSongsAnalysis(2016, 2), dataset), results.get("top-songs"));
+        assertEquals(TestData.result(new ExploreStatisticsAnalysis(), dataset), results.get("explore"));
+        assertEquals(TestData.result(new PlayedSongsByDayAnalysis("2016-02-03"), dataset), results.get("played-songs"));
+        assertEquals(Map.of(
+                "top-songs", Map.of("year", 2016, "month", 2),
+                "explore", Map.of(),
+                "listening-habits", Map.of(),
+                "played-songs", Map.of("date", "2016-02-03")), results.get(DashboardAnalysis.FILTERS));
+    }
+}
@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatasetSnapshotTest {
+    @TempDir
+    static Path dir;
+
+    static StreamingHistoryDataset parsed;
+    static StreamingHistoryDataset mapped;
+    static Path snapshot;
+
+    @BeforeAll
+    static void writeAndOpen() throws IOException {
+        parsed = TestData.dataset();
+        snapshot = dir.resolve("fixture.snapshot");
+        DatasetSnapshot.write(parsed, snapshot);
+        mapped = DatasetSnapshot.open(snapshot);
+    }
+
+    @Test
+    void rowsSurviveTheRoundTrip() {
+        assertTrue(mapped.isMapped());
+        assertFalse(parsed.isMapped());
+        assertEquals(parsed.size(), mapped.size());
+        assertEquals(parsed.version(), mapped.version());
+        for (int row = 0; row < parsed.size(); row++) {
+            assertEquals(parsed.entry(row), mapped.entry(row), "row " + row);
+            assertEquals(parsed.msPlayed(row), mapped.msPlayed(row), "row " + row);
+            assertEquals(parsed.albumArtistCode(row), mapped.albumArtistCode(row), "row " + row);
+        }
+    }
+
+    @Test
+    void dictionariesSurviveTheRoundTrip() {
+        assertDictionary(parsed.trackNames(), mapped.trackNames());
+        assertDictionary(parsed.artistNames(), mapped.artistNames());
+        assertDictionary(parsed.albumNames(), mapped.albumNames());
+        assertDictionary(parsed.trackUris(), mapped.trackUris());
+        assertDictionary(parsed.reasons(), mapped.reasons());
+        assertEquals(parsed.albumArtistCount(), mapped.albumArtistCount());
+        for (int pair = 0; pair < parsed.albumArtistCount(); pair++) {
+            assertEquals(parsed.albumArtistKey(pair), mapped.albumArtistKey(pair));
+        }
+    }
+
+    @Test
+    void analysesMatchTheParsedDataset() {
+        String day = LocalDate.ofEpochDay(EpochTime.epochDay(parsed.epochSecond(100))).toString();
+        List<Analysis> analyses = List.of(
+                new TopSongsAnalysis(), new TopSongsAnalysis(2016, null), new TopSongsAnalysis(2016, 2),
+                new TopArtistsAnalysis(), new TopArtistsAnalysis(null, 12),
+                new TopAlbumsAnalysis(), new TopAlbumsAnalysis(2015, 12),
+                new ExploreStatisticsAnalysis(), new ExploreStatisticsAnalysis(true),
+                new PlayedSongsByDayAnalysis(day),
+                new PlaysInRangeAnalysis("2016-01-01", "2016-01-31", null, 50),
+                new PlaysInRangeAnalysis(null, null, 7, 20),
+                new SessionsAroundAnalysis(day + "T08:00:00Z", 30),
+                new ListeningHabitsAnalysis(30, 30, 2, 10),
+                new DashboardAnalysis(List.of("top-songs", "top-artists", "top-albums", "explore", "played-songs"),
+                        2016, null, day));
+        for (Analysis analysis : analyses) {
+            assertEquals(TestData.result(analysis, parsed), TestData.result(analysis, mapped),
+                    analysis.getClass().getSimpleName());
+        }
+    }
+
+    // The columnar results, from the snapshot, against the analyses over StreamingHistoryEntry rows
+    @Test
+    void analysesMatchTheEntryResults() throws IOException {
+        List<StreamingHistoryEntry> entries = TestData.entries();
+        String day = LocalDate.ofEpochDay(EpochTime.epochDay(parsed.epochSecond(100))).toString();
+        List<Analysis> analyses = List.of(
+                new TopSongsAnalysis(), new TopSongsAnalysis(2016, 2),
+                new TopArtistsAnalysis(), new TopAlbumsAnalysis(2015, 12),
+                new ExploreStatisticsAnalysis(), new PlayedSongsByDayAnalysis(day));
+        for (Analysis analysis : analyses) {
+            assertEquals(TestData.result(analysis, entries), TestData.result(analysis, mapped),
+                    analysis.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshot);
+        for (int length : new int[]{0, 10, 100, bytes.length / 2, bytes.length - 1}) {
+            Path truncated = dir.resolve("truncated-" + length + ".snapshot");
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> DatasetSnapshot.open(truncated), length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsAnotherMagic() throws IOException {
+        Path file = withHeaderInt(0, 0x12345678, "magic.snapshot");
+        assertThrows(IOException.class, () -> DatasetSnapshot.open(file));
+    }
+
+    @Test
+    void rejectsAnotherFormatVersion() throws IOException {
+        Path file = withHeaderInt(4, 1, "version.snapshot");
+        assertThrows(IOException.class, () -> DatasetSnapshot.open(file));
+    }
+
+    private static Path withHeaderInt(int offset, int value, String name) throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshot);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+        Path file = dir.resolve(name);
+        Files.write(file, bytes);
+        return file;
+    }
+
+    private static void assertDictionary(StringDictionary expected, StringDictionary actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int code = 0; code < expected.size(); code++) {
+            assertEquals(expected.decode(code), actual.decode(code));
+            assertEquals(code, actual.codeOf(expected.decode(code)));
+        }
+        assertEquals(-1, actual.codeOf("not in the fixture"));
+    }
+}
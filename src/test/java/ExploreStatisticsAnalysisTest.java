@@ -0,0 +1,18 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExploreStatisticsAnalysisTest {
+    // A dataset's dictionaries give the exact distinct counts, so approximate mode only adds a zero error
+    @Test
+    void approximateCountsOverADatasetAreExact() throws IOException {
+        StreamingHistoryDataset dataset = TestData.dataset();
+        Map<Object, Object> expected = new HashMap<>((Map<?, ?>) TestData.result(new ExploreStatisticsAnalysis(), dataset));
+        expected.put("distinct-error", "0.00%");
+        assertEquals(expected, TestData.result(new ExploreStatisticsAnalysis(true), dataset));
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSystemCacheTierTest {
+    private static final long TTL_MILLIS = 60_000;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void storesValuesAndFiles() throws IOException {
+        FileSystemCacheTier tier = new FileSystemCacheTier(root, TTL_MILLIS);
+        assertNull(tier.get("result/a?b=c"));
+        tier.put("result/a?b=c", new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, tier.get("result/a?b=c"));
+
+        Path source = Files.write(root.resolve("source"), new byte[]{4, 5});
+        Path target = root.resolve("copies/target");
+        assertFalse(tier.download("dataset/x", target));
+        tier.upload("dataset/x", source);
+        assertTrue(tier.download("dataset/x", target));
+        assertArrayEquals(new byte[]{4, 5}, Files.readAllBytes(target));
+    }
+
+    @Test
+    void oneHolderPerKey() throws IOException {
+        FileSystemCacheTier tier = new FileSystemCacheTier(root, TTL_MILLIS);
+        ExternalCacheTier.Lock lock = tier.tryLock("parse/a");
+        assertNotNull(lock);
+        assertNull(tier.tryLock("parse/a"));
+        ExternalCacheTier.Lock other = tier.tryLock("parse/b");
+        assertNotNull(other);
+        lock.close();
+        ExternalCacheTier.Lock again = tier.tryLock("parse/a");
+        assertNotNull(again);
+        again.close();
+        other.close();
+    }
+
+    // Nodes finding the same abandoned lock at once: exactly one of them takes it over, every round
+    @Test
+    void abandonedLockIsTakenOverOnce() throws Exception {
+        FileSystemCacheTier tier = new FileSystemCacheTier(root, TTL_MILLIS);
+        ExecutorService nodes = Executors.newFixedThreadPool(16);
+        try {
+            for (int round = 0; round < 200; round++) {
+                assertNotNull(tier.tryLock("append/a"));
+                abandonLocks();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<ExternalCacheTier.Lock>> attempts = new ArrayList<>();
+                for (int node = 0; node < 16; node++) {
+                    Callable<ExternalCacheTier.Lock> attempt = () -> {
+                        start.await();
+                        return tier.tryLock("append/a");
+                    };
+                    attempts.add(nodes.submit(attempt));
+                }
+                start.countDown();
+                List<ExternalCacheTier.Lock> taken = new ArrayList<>();
+                for (Future<ExternalCacheTier.Lock> attempt : attempts) {
+                    if (attempt.get() != null) {
+                        taken.add(attempt.get());
+                    }
+                }
+                assertEquals(1, taken.size(), "round " + round);
+                taken.get(0).close();
+                assertEquals(List.of(), lockFiles());
+            }
+        } finally {
+            nodes.shutdownNow();
+        }
+    }
+
+    // The node that abandoned a lock closing it late leaves the new holder's lock in place
+    @Test
+    void lateCloseKeepsTheNewHoldersLock() throws IOException {
+        FileSystemCacheTier tier = new FileSystemCacheTier(root, TTL_MILLIS);
+        ExternalCacheTier.Lock abandoned = tier.tryLock("parse/a");
+        abandonLocks();
+        ExternalCacheTier.Lock current = tier.tryLock("parse/a");
+        assertNotNull(current);
+        abandoned.close();
+        assertNull(tier.tryLock("parse/a"));
+        assertEquals(1, lockFiles().size());
+        current.close();
+        assertEquals(List.of(), lockFiles());
+    }
+
+    // A holder working past the expiry keeps its lock, and releases it when done
+    @Test
+    void heldLockIsRenewedPastTheExpiry() throws Exception {
+        FileSystemCacheTier tier = new FileSystemCacheTier(root, 1_000);
+        ExternalCacheTier.Lock lock = tier.tryLock("parse/a");
+        assertNotNull(lock);
+        for (int check = 1; check <= 5; check++) {
+            Thread.sleep(500);
+            assertNull(tier.tryLock("parse/a"), "after " + 500 * check + " ms");
+        }
+        lock.close();
+        ExternalCacheTier.Lock again = tier.tryLock("parse/a");
+        assertNotNull(again);
+        again.close();
+    }
+
+    private void abandonLocks() throws IOException {
+        FileTime expired = FileTime.fromMillis(System.currentTimeMillis() - 2 * TTL_MILLIS);
+        for (Path lock : lockFiles()) {
+            Files.setLastModifiedTime(lock, expired);
+        }
+    }
+
+    private List<Path> lockFiles() throws IOException {
+        try (Stream<Path> files = Files.list(root.resolve("locks"))) {
+            return files.toList();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+    // Three standard errors, from linear counting through the raw estimator; the values are fixed, so this
+    // checks the estimator rather than the luck of one run
+    @Test
+    void estimatesWithinTheStatedError() {
+        for (int distinct : new int[]{10, 1_000, 10_000, 30_000, 150_000, 1_000_000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < distinct; i++) {
+                sketch.add("spotify:track:" + i);
+                // Repeats do not count
+                sketch.add("spotify:track:" + i / 2);
+            }
+            double error = Math.abs(sketch.estimate() - distinct) / (double) distinct;
+            assertTrue(error <= 3 * sketch.relativeError(), distinct + " values estimated as " + sketch.estimate());
+        }
+    }
+
+    @Test
+    void mergeIsTheSketchOfTheUnion() throws IOException {
+        HyperLogLog left = new HyperLogLog();
+        HyperLogLog right = new HyperLogLog();
+        HyperLogLog union = new HyperLogLog();
+        for (int i = 0; i < 60_000; i++) {
+            left.add("artist " + i);
+            union.add("artist " + i);
+        }
+        for (int i = 40_000; i < 120_000; i++) {
+            right.add("artist " + i);
+            union.add("artist " + i);
+        }
+        left.merge(right);
+        assertEquals(union.estimate(), left.estimate());
+        assertArrayEquals(bytes(union), bytes(left));
+    }
+
+    @Test
+    void rejectsMergesAcrossPrecisions() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(12).merge(new HyperLogLog(14)));
+    }
+
+    // Sparse with few values set, dense with many
+    @Test
+    void roundTripsThroughBytes() throws IOException {
+        for (int distinct : new int[]{0, 50, 100_000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < distinct; i++) {
+                sketch.add("album " + i);
+            }
+            HyperLogLog read = HyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(bytes(sketch))));
+            assertEquals(sketch.estimate(), read.estimate());
+            assertArrayEquals(bytes(sketch), bytes(read));
+        }
+    }
+
+    private static byte[] bytes(HyperLogLog sketch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            sketch.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+}
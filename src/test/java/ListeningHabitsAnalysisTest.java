@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ListeningHabitsAnalysisTest {
+    private static final long START = 1_700_000_000L;
+
+    // Every play of "zero" lasted 0 ms: it ranks as always skipped and never completed, and the result
+    // still serializes, Gson refuses NaN
+    @Test
+    void rankedTrackWithOnlyZeroMsPlays() {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        for (int i = 0; i < 3; i++) {
+            builder.add(START + i * 600, 0, "Zero", "Artist", "Album", "spotify:track:zero", "clickrow", "endplay");
+            builder.add(START + i * 600 + 300, 200_000, "Full", "Artist", "Album", "spotify:track:full", "clickrow", "trackdone");
+        }
+        Map<String, Object> result = new ListeningHabitsAnalysis(30, 30, 2, 10).analyze(builder.build(), null);
+
+        ListeningHabitsAnalysis.Completion completion = (ListeningHabitsAnalysis.Completion) result.get("completion");
+        ListeningHabitsAnalysis.TrackHabits least = completion.leastCompleted().get(0);
+        assertEquals("spotify:track:zero", least.spotifyTrackUri());
+        assertEquals(0.0, least.completion());
+        assertEquals(1.0, least.skipRate());
+        assertEquals(0.5, completion.meanCompletion());
+
+        ListeningHabitsAnalysis.Skips skips = (ListeningHabitsAnalysis.Skips) result.get("skips");
+        assertEquals("spotify:track:zero", skips.mostSkipped().get(0).spotifyTrackUri());
+        assertEquals(0.0, skips.mostSkipped().get(0).completion());
+
+        String json = SpotifyDataController.createGson().toJson(result);
+        assertFalse(json.contains("NaN"), json);
+    }
+
+    // Episodes share the empty URI: a short one must not count as a badly completed play of the longest one
+    @Test
+    void meanCompletionLeavesOutPlaysWithoutTrack() {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        builder.add(START, 200_000, "Full", "Artist", "Album", "spotify:track:full", "clickrow", "trackdone");
+        builder.add(START + 600, 100_000, "Half", "Artist", "Album", "spotify:track:half", "clickrow", "trackdone");
+        builder.add(START + 1200, 3_600_000, "", "", "", "", "clickrow", "trackdone");
+        builder.add(START + 5000, 60_000, "", "", "", "", "clickrow", "endplay");
+        Map<String, Object> result = new ListeningHabitsAnalysis(30, 30, 1, 10).analyze(builder.build(), null);
+
+        ListeningHabitsAnalysis.Completion completion = (ListeningHabitsAnalysis.Completion) result.get("completion");
+        assertEquals(1.0, completion.meanCompletion());
+        assertEquals(0.75, completion.trackDoneRate());
+    }
+
+    @Test
+    void sessionsSplitAtTheGap() {
+        StreamingHistoryDataset.Builder builder = StreamingHistoryDataset.builder();
+        // Two plays of 5 minutes back to back, then one 31 minutes after the second ended
+        builder.add(START, 300_000, "A", "Artist", "Album", "spotify:track:a", "clickrow", "trackdone");
+        builder.add(START + 300, 300_000, "B", "Artist", "Album", "spotify:track:b", "trackdone", "trackdone");
+        builder.add(START + 600 + 31 * 60, 300_000, "C", "Artist", "Album", "spotify:track:c", "clickrow", "trackdone");
+        Map<String, Object> result = new ListeningHabitsAnalysis(30, 30, 1, 10).analyze(builder.build(), null);
+
+        ListeningHabitsAnalysis.Sessions sessions = (ListeningHabitsAnalysis.Sessions) result.get("sessions");
+        assertEquals(2, sessions.count());
+        assertEquals(10, sessions.longestMinutes());
+        assertEquals(1.5, sessions.meanPlays());
+    }
+
+    // The fixture's track with only 0 ms plays goes through the HTTP serialization path
+    @Test
+    void fixtureResultSerializes() throws IOException {
+        Object result = TestData.result(new ListeningHabitsAnalysis(30, 30, 1, 100), TestData.dataset());
+        String json = SpotifyDataController.createGson().toJson(result);
+        assertFalse(json.contains("NaN"));
+        assertTrue(json.contains("spotify:track:13"));
+        List<?> least = ((ListeningHabitsAnalysis.Completion) ((Map<?, ?>) result).get("completion")).leastCompleted();
+        assertFalse(least.isEmpty());
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParallelCsvIngestTest {
+    private static ExecutorService executor;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    // Every split of the fixture, from one chunk to about one per row, matches the sequential reader
+    @Test
+    void matchesTheSequentialReader() throws IOException {
+        assertSameRowsForEverySplit(fixture());
+    }
+
+    // Quotes inside unquoted fields are literals to the sequential reader, and must not shift later splits
+    @Test
+    void readsStrayQuotesAsLiterals() throws IOException {
+        String csv = fixture()
+                .replace(",Track 3,", ",Track 3 12\" Mix,")
+                .replace(",Album 6,", ",Album \"6,");
+        assertSameRowsForEverySplit(csv);
+    }
+
+    private void assertSameRowsForEverySplit(String csv) throws IOException {
+        byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(directory.resolve("history.csv"), bytes);
+        StreamingHistoryDataset expected = SpotifyDataService.parseCsvColumnar(new ByteArrayInputStream(bytes));
+        for (int parallelism = 1; parallelism <= 400; parallelism += parallelism < 40 ? 1 : 40) {
+            StreamingHistoryDataset parsed = ParallelCsvIngest.parse(file, executor, parallelism);
+            assertEquals(expected.size(), parsed.size(), parallelism + " chunks");
+            for (int row = 0; row < expected.size(); row++) {
+                assertEquals(row(expected, row), row(parsed, row), parallelism + " chunks, row " + row);
+            }
+        }
+    }
+
+    private static String fixture() throws IOException {
+        try (InputStream in = TestData.class.getResourceAsStream(TestData.FIXTURE)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String row(StreamingHistoryDataset dataset, int row) {
+        return dataset.epochSecond(row) + "|" + dataset.msPlayed(row)
+                + "|" + dataset.trackNames().decode(dataset.trackNameCode(row))
+                + "|" + dataset.artistNames().decode(dataset.artistNameCode(row))
+                + "|" + dataset.albumNames().decode(dataset.albumNameCode(row))
+                + "|" + dataset.trackUris().decode(dataset.trackUriCode(row))
+                + "|" + dataset.reasons().decode(dataset.reasonStartCode(row))
+                + "|" + dataset.reasons().decode(dataset.reasonEndCode(row));
+    }
+}
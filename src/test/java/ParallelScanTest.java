@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelScanTest {
+    // Accumulators that cannot fork see every row in order, next to one that can, and are never asked to fork
+    @Test
+    void feedsEveryRowToAccumulatorsThatCannotFork() throws IOException {
+        StreamingHistoryDataset dataset = TestData.dataset();
+        List<Integer> rows = new ArrayList<>();
+        Analysis.Accumulator recording = new Analysis.Accumulator() {
+            @Override
+            public void accept(StreamingHistoryDataset dataset, int row) {
+                rows.add(row);
+            }
+
+            @Override
+            public Object finish() {
+                return rows;
+            }
+        };
+        assertFalse(recording.canFork());
+        assertThrows(UnsupportedOperationException.class, recording::fork);
+
+        ExploreStatisticsAnalysis explore = new ExploreStatisticsAnalysis(false);
+        Analysis.Accumulator statistics = explore.accumulator(dataset, TestData.offlineApi());
+        ParallelScan.accept(dataset, List.of(recording, statistics));
+        assertEquals(dataset.size(), rows.size());
+        for (int row = 0; row < rows.size(); row++) {
+            assertEquals(row, rows.get(row));
+        }
+        assertEquals(TestData.result(explore, dataset), statistics.finish());
+    }
+
+    // Partitions down to a single row: every row reaches exactly one fork, the forks merge back in row order,
+    // and the merged result is the sequential one
+    @Test
+    void forkedPartitionsMatchTheSequentialScan() throws IOException {
+        StreamingHistoryDataset dataset = TestData.dataset();
+        ExploreStatisticsAnalysis explore = new ExploreStatisticsAnalysis(false);
+        Analysis.Accumulator sequential = explore.accumulator(dataset, TestData.offlineApi());
+        ParallelScan.accept(dataset, List.of(sequential), dataset.size());
+        for (int partitionRows : new int[] {1, 2, 3, 7, 64, dataset.size() / 2, dataset.size() - 1}) {
+            ForkingRecorder recording = new ForkingRecorder();
+            Analysis.Accumulator statistics = explore.accumulator(dataset, TestData.offlineApi());
+            ParallelScan.accept(dataset, List.of(recording, statistics), partitionRows);
+            assertTrue(recording.forks.get() > 1, partitionRows + " rows per partition");
+            assertEquals(IntStream.range(0, dataset.size()).boxed().toList(), recording.finish(),
+                    partitionRows + " rows per partition");
+            assertEquals(sequential.finish(), statistics.finish(), partitionRows + " rows per partition");
+        }
+    }
+
+    @Test
+    void scanMergesPartitionsInOrder() {
+        for (int partitionRows = 1; partitionRows <= 100; partitionRows++) {
+            List<Integer> rows = ParallelScan.scan(10, 110, partitionRows, ArrayList::new,
+                    (partial, from, to) -> IntStream.range(from, to).forEach(partial::add),
+                    (left, right) -> {
+                        left.addAll(right);
+                        return left;
+                    });
+            assertEquals(IntStream.range(10, 110).boxed().toList(), rows, partitionRows + " rows per partition");
+        }
+    }
+
+    private static final class ForkingRecorder implements Analysis.Accumulator {
+        private final List<Integer> rows = new ArrayList<>();
+        private final AtomicInteger forks;
+
+        private ForkingRecorder() {
+            this(new AtomicInteger());
+        }
+
+        private ForkingRecorder(AtomicInteger forks) {
+            this.forks = forks;
+        }
+
+        @Override
+        public void accept(StreamingHistoryDataset dataset, int row) {
+            rows.add(row);
+        }
+
+        @Override
+        public boolean canFork() {
+            return true;
+        }
+
+        @Override
+        public ForkingRecorder fork() {
+            forks.incrementAndGet();
+            return new ForkingRecorder(forks);
+        }
+
+        @Override
+        public void merge(Analysis.Accumulator fork) {
+            rows.addAll(((ForkingRecorder) fork).rows);
+        }
+
+        @Override
+        public List<Integer> finish() {
+            return rows;
+        }
+    }
+}
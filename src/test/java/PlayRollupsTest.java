@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayRollupsTest {
+    // Every filter the Top* routes pass, against a scan over the rows: all time, each year, each month across
+    // years, each year and month, and filters that select no bucket
+    @Test
+    void totalsMatchAScanOfTheRows() throws IOException {
+        StreamingHistoryDataset dataset = TestData.dataset();
+        PlayRollups rollups = PlayRollups.build(dataset);
+        Integer[] years = {null, 2014, 2015, 2016, 2017};
+        Integer[] months = {null, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+        for (PlayRollups.Dimension dimension : PlayRollups.Dimension.values()) {
+            for (Integer year : years) {
+                for (Integer month : months) {
+                    String filter = dimension + " " + year + "-" + month;
+                    assertEquals(scan(dataset, dimension, year, month), asMap(rollups.totals(dimension, year, month)), filter);
+                }
+            }
+        }
+    }
+
+    // Built in partitions down to a single row, so months are cut across partitions and merged back
+    @Test
+    void partitionedBuildMatchesTheSequentialOne() throws IOException {
+        StreamingHistoryDataset dataset = TestData.dataset();
+        PlayRollups sequential = PlayRollups.build(dataset, dataset.size());
+        Integer[] years = {null, 2015, 2016};
+        Integer[] months = {null, 1, 2, 3, 4, 12};
+        for (int partitionRows : new int[] {1, 2, 3, 7, 64, dataset.size() / 2, dataset.size() - 1}) {
+            PlayRollups partitioned = PlayRollups.build(dataset, partitionRows);
+            for (PlayRollups.Dimension dimension : PlayRollups.Dimension.values()) {
+                for (Integer year : years) {
+                    for (Integer month : months) {
+                        String filter = partitionRows + " rows per partition, " + dimension + " " + year + "-" + month;
+                        assertEquals(asMap(sequential.totals(dimension, year, month)),
+                                asMap(partitioned.totals(dimension, year, month)), filter);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void noMatchingBucketIsEmpty() throws IOException {
+        PlayRollups rollups = PlayRollups.build(TestData.dataset());
+        assertSame(PlayRollups.Totals.EMPTY, rollups.totals(PlayRollups.Dimension.TRACK, 2020, null));
+        assertSame(PlayRollups.Totals.EMPTY, rollups.totals(PlayRollups.Dimension.ARTIST, 2016, 7));
+    }
+
+    private static Map<Integer, String> scan(StreamingHistoryDataset dataset, PlayRollups.Dimension dimension,
+                                             Integer year, Integer month) {
+        Map<Integer, long[]> totals = new TreeMap<>();
+        for (int row = 0; row < dataset.size(); row++) {
+            LocalDateTime ts = LocalDateTime.ofEpochSecond(dataset.epochSecond(row), 0, ZoneOffset.UTC);
+            if (year != null && ts.getYear() != year || month != null && ts.getMonthValue() != month) {
+                continue;
+            }
+            int key = switch (dimension) {
+                case TRACK -> dataset.trackUriCode(row);
+                case ARTIST -> dataset.artistNameCode(row);
+                case ALBUM -> dataset.albumArtistCode(row);
+            };
+            long[] keyTotals = totals.computeIfAbsent(key, ignored -> new long[2]);
+            keyTotals[0] += dataset.minutesPlayed(row);
+            keyTotals[1]++;
+        }
+        Map<Integer, String> expected = new TreeMap<>();
+        totals.forEach((key, keyTotals) -> expected.put(key, keyTotals[0] + "/" + keyTotals[1]));
+        return expected;
+    }
+
+    private static Map<Integer, String> asMap(PlayRollups.Totals totals) {
+        Map<Integer, String> map = new TreeMap<>();
+        for (int i = 0; i < totals.size(); i++) {
+            if (i > 0) {
+                assertTrue(totals.keys()[i - 1] < totals.keys()[i], "keys sorted");
+            }
+            map.put(totals.keys()[i], totals.minutes()[i] + "/" + totals.plays()[i]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,29 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayedSongsByDayAnalysisTest {
+    // Every day of the fixture and the days around it, through the time index against the entry scan
+    @Test
+    void matchesTheEntryScanOnEveryDay() throws IOException {
+        StreamingHistoryDataset dataset = TestData.dataset();
+        List<StreamingHistoryEntry> entries = TestData.entries();
+        LocalDate first = LocalDate.ofEpochDay(EpochTime.epochDay(dataset.timeIndex().epochSecond(0)) - 1);
+        LocalDate last = LocalDate.ofEpochDay(EpochTime.epochDay(dataset.timeIndex().epochSecond(dataset.size() - 1)) + 1);
+        int daysWithPlays = 0;
+        for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+            PlayedSongsByDayAnalysis analysis = new PlayedSongsByDayAnalysis(day.toString());
+            List<?> expected = (List<?>) TestData.result(analysis, entries);
+            assertEquals(expected, TestData.result(analysis, dataset), day.toString());
+            if (!expected.isEmpty()) {
+                daysWithPlays++;
+            }
+        }
+        assertTrue(daysWithPlays > 10);
+    }
+}
@@ -0,0 +1,115 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingTest {
+    private static final int CAPACITY = 20;
+
+    @Test
+    void countsAreWithinTheStatedBounds() {
+        Map<String, Long> exact = new HashMap<>();
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        long total = offerSkewed(sketch, exact, new Random(1), 20_000);
+        assertBounds(sketch, exact, total);
+    }
+
+    @Test
+    void mergedCountsAreWithinTheSumOfTheBounds() {
+        Map<String, Long> exact = new HashMap<>();
+        SpaceSaving left = new SpaceSaving(CAPACITY);
+        SpaceSaving right = new SpaceSaving(CAPACITY);
+        long total = offerSkewed(left, exact, new Random(2), 15_000);
+        total += offerSkewed(right, exact, new Random(3), 5_000);
+        left.merge(right);
+        // Each side's N / capacity, which add up to the merged N / capacity
+        assertBounds(left, exact, total);
+    }
+
+    // Exact counts within capacity stay exact through a merge
+    @Test
+    void mergesExactCountsExactly() {
+        SpaceSaving left = SpaceSaving.ofCounts(CAPACITY, List.of(
+                new SpaceSaving.Counter("a", "A", 5, 0), new SpaceSaving.Counter("b", "B", 3, 0)));
+        SpaceSaving right = SpaceSaving.ofCounts(CAPACITY, List.of(
+                new SpaceSaving.Counter("b", "B", 4, 0), new SpaceSaving.Counter("c", "C", 1, 0)));
+        left.merge(right);
+        assertEquals(List.of(new SpaceSaving.Counter("b", "B", 7, 0), new SpaceSaving.Counter("a", "A", 5, 0),
+                new SpaceSaving.Counter("c", "C", 1, 0)), left.top(10));
+        assertEquals(0, left.floor());
+    }
+
+    @Test
+    void ofCountsKeepsTheLargest() {
+        List<SpaceSaving.Counter> counts = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            counts.add(new SpaceSaving.Counter("key " + i, "label " + i, i, 0));
+        }
+        SpaceSaving sketch = SpaceSaving.ofCounts(CAPACITY, counts);
+        List<SpaceSaving.Counter> top = sketch.top(CAPACITY + 1);
+        assertEquals(CAPACITY, top.size());
+        assertEquals(counts.get(29), top.get(0));
+        assertEquals(counts.get(10), top.get(CAPACITY - 1));
+        assertEquals(9, sketch.floor());
+    }
+
+    @Test
+    void roundTripsThroughBytes() throws IOException {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        offerSkewed(sketch, new HashMap<>(), new Random(4), 1_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            sketch.writeTo(out);
+        }
+        SpaceSaving read = SpaceSaving.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(sketch.top(CAPACITY), read.top(CAPACITY));
+        assertEquals(sketch.floor(), read.floor());
+    }
+
+    // A few heavy keys over a long tail of 500, with weights of 1 to 3
+    private static long offerSkewed(SpaceSaving sketch, Map<String, Long> exact, Random random, int offers) {
+        long total = 0;
+        for (int i = 0; i < offers; i++) {
+            int key = random.nextInt(4) == 0 ? random.nextInt(500) : (int) Math.abs(random.nextGaussian() * 3);
+            long weight = 1 + random.nextInt(3);
+            sketch.offer("key " + key, "label " + key, weight);
+            exact.merge("key " + key, weight, Long::sum);
+            total += weight;
+        }
+        return total;
+    }
+
+    private static void assertBounds(SpaceSaving sketch, Map<String, Long> exact, long total) {
+        long bound = total / CAPACITY;
+        List<SpaceSaving.Counter> counters = sketch.top(Integer.MAX_VALUE);
+        assertTrue(counters.size() <= CAPACITY);
+        Map<String, SpaceSaving.Counter> byKey = new HashMap<>();
+        for (SpaceSaving.Counter counter : counters) {
+            byKey.put(counter.key(), counter);
+            long count = exact.get(counter.key());
+            assertTrue(counter.count() >= count, counter + " below " + count);
+            assertTrue(counter.count() - counter.error() <= count, counter + " error too small for " + count);
+            assertTrue(counter.error() <= bound, counter + " error above " + bound);
+        }
+        assertTrue(sketch.floor() <= bound);
+        for (Map.Entry<String, Long> entry : exact.entrySet()) {
+            if (entry.getValue() > bound) {
+                assertTrue(byKey.containsKey(entry.getKey()), entry + " missing");
+            }
+            if (!byKey.containsKey(entry.getKey())) {
+                assertTrue(entry.getValue() <= sketch.floor(), entry + " above the floor " + sketch.floor());
+            }
+        }
+    }
+}
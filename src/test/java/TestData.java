@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Fixture shared by the tests: streaming-history.csv holds 420 made-up plays from late December 2015 to
+// April 2016, across a year boundary, with podcast rows (no track metadata), quoted fields and a track
+// every play of which lasted 0 ms
+final class TestData {
+    static final String FIXTURE = "/streaming-history.csv";
+
+    private TestData() {
+    }
+
+    static StreamingHistoryDataset dataset() throws IOException {
+        try (InputStream in = TestData.class.getResourceAsStream(FIXTURE)) {
+            return SpotifyDataService.parseCsvColumnar(in);
+        }
+    }
+
+    // Rows as parsed by the original commons-csv path
+    static List<StreamingHistoryEntry> entries() throws IOException {
+        try (InputStream in = TestData.class.getResourceAsStream(FIXTURE)) {
+            return SpotifyDataService.parseCsv(in);
+        }
+    }
+
+    static Object result(Analysis analysis, StreamingHistoryDataset dataset) {
+        return Analysis.asFuture(analysis.analyze(dataset, offlineApi())).join();
+    }
+
+    static Object result(Analysis analysis, List<StreamingHistoryEntry> entries) {
+        return Analysis.asFuture(analysis.analyze(entries, offlineApi())).join();
+    }
+
+    // Lookups answered at once with IDs derived from the names, no token and no network
+    static SpotifyAPIService offlineApi() {
+        return new SpotifyAPIService() {
+            @Override
+            public CompletableFuture<List<String>> getArtistIds(List<String> artistNames) {
+                return CompletableFuture.completedFuture(artistNames.stream().map(name -> "artist:" + name).toList());
+            }
+
+            @Override
+            public CompletableFuture<List<String>> getAlbumUris(List<Map.Entry<String, Long>> albumArtistPairs) {
+                List<String> uris = new ArrayList<>();
+                for (Map.Entry<String, Long> pair : albumArtistPairs) {
+                    uris.add("album:" + pair.getKey() + "=" + pair.getValue());
+                }
+                return CompletableFuture.completedFuture(uris);
+            }
+        };
+    }
+}
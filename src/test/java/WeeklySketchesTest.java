@@ -0,0 +1,185 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WeeklySketchesTest {
+    @TempDir
+    static Path directory;
+
+    private static StreamingHistoryDataset dataset;
+    private static Path whole;
+    private static Path even;
+    private static Path odd;
+
+    // The fixture as one upload, and split row by row into two uploads that share most tracks and weeks
+    @BeforeAll
+    static void writeSketches() throws IOException {
+        dataset = TestData.dataset();
+        StreamingHistoryDataset.Builder evenRows = StreamingHistoryDataset.builder();
+        StreamingHistoryDataset.Builder oddRows = StreamingHistoryDataset.builder();
+        for (int row = 0; row < dataset.size(); row++) {
+            (row % 2 == 0 ? evenRows : oddRows).add(dataset.epochSecond(row), dataset.msPlayed(row),
+                    dataset.trackNames().decode(dataset.trackNameCode(row)),
+                    dataset.artistNames().decode(dataset.artistNameCode(row)),
+                    dataset.albumNames().decode(dataset.albumNameCode(row)),
+                    dataset.trackUris().decode(dataset.trackUriCode(row)),
+                    dataset.reasons().decode(dataset.reasonStartCode(row)),
+                    dataset.reasons().decode(dataset.reasonEndCode(row)));
+        }
+        whole = directory.resolve("whole.sketches");
+        even = directory.resolve("even.sketches");
+        odd = directory.resolve("odd.sketches");
+        WeeklySketches.write(dataset, whole);
+        WeeklySketches.write(evenRows.build(), even);
+        WeeklySketches.write(oddRows.build(), odd);
+    }
+
+    @Test
+    void weeksStartOnMonday() {
+        LocalDate monday = LocalDate.of(2024, 6, 3);
+        assertEquals(monday.toEpochDay(), WeeklySketches.weekStart(monday.toEpochDay()));
+        assertEquals(monday.toEpochDay(), WeeklySketches.weekStart(monday.plusDays(6).toEpochDay()));
+        assertEquals(monday.plusDays(7).toEpochDay(), WeeklySketches.weekStart(monday.plusDays(7).toEpochDay()));
+        // Epoch day 0 was a Thursday; before it the days are negative
+        assertEquals(LocalDate.of(1969, 12, 29).toEpochDay(), WeeklySketches.weekStart(0));
+        assertEquals(LocalDate.of(1969, 12, 22).toEpochDay(), WeeklySketches.weekStart(LocalDate.of(1969, 12, 28).toEpochDay()));
+        for (LocalDate day = LocalDate.of(1969, 1, 1); day.isBefore(LocalDate.of(1971, 1, 1)); day = day.plusDays(1)) {
+            LocalDate start = LocalDate.ofEpochDay(WeeklySketches.weekStart(day.toEpochDay()));
+            assertEquals(DayOfWeek.MONDAY, start.getDayOfWeek(), day.toString());
+            assertTrue(!start.isAfter(day) && start.plusDays(7).isAfter(day), day.toString());
+        }
+    }
+
+    // Every week read back from one dataset's file, and the weeks around them, against the exact counts
+    @Test
+    void writeAndReadRoundTrip() throws IOException {
+        NavigableMap<Long, List<Integer>> weeks = rowsByWeek();
+        long first = weeks.firstKey();
+        for (long week = first - 7; week <= first + 7L * (weeks.size() + 1); week += 7) {
+            List<Integer> rows = weeks.get(week);
+            WeeklySketches.Week read = WeeklySketches.read(whole, week);
+            if (rows == null) {
+                assertNull(read, LocalDate.ofEpochDay(week).toString());
+            } else {
+                assertExact(rows, 1, read.stats(LocalDate.ofEpochDay(week), 1, 1_000));
+            }
+        }
+    }
+
+    // What /stats/weekly answers: the weeks of two datasets merged, against the exact counts of all their
+    // plays, on any day of the week
+    @Test
+    void weeklyStatsMatchTheExactCounts() {
+        for (Map.Entry<Long, List<Integer>> week : rowsByWeek().entrySet()) {
+            LocalDate sunday = LocalDate.ofEpochDay(week.getKey() + 6);
+            assertExact(week.getValue(), 2, WeeklySketches.stats(List.of(even, odd), sunday, 1_000));
+            WeeklySketches.Stats top = WeeklySketches.stats(List.of(even, odd), sunday, 3);
+            assertTrue(top.topSongs().size() <= 3 && top.topArtists().size() <= 3);
+        }
+        WeeklySketches.Stats none = WeeklySketches.stats(List.of(even, odd), LocalDate.of(2016, 6, 1), 10);
+        assertEquals(0, none.datasets());
+        assertEquals(0, none.plays());
+        assertEquals(List.of(), none.topSongs());
+    }
+
+    // A damaged file is left out of the week rather than failing it
+    @Test
+    void skipsUnreadableFiles() throws IOException {
+        Path truncated = directory.resolve("truncated.sketches");
+        Files.copy(whole, truncated);
+        try (RandomAccessFile file = new RandomAccessFile(truncated.toFile(), "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        Path another = directory.resolve("another.sketches");
+        Files.write(another, new byte[]{'S', 'N', 'A', 'P', 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0});
+        NavigableMap<Long, List<Integer>> weeks = rowsByWeek();
+        assertThrows(IOException.class, () -> WeeklySketches.read(another, weeks.firstKey()));
+
+        long lastWeek = weeks.lastKey();
+        WeeklySketches.Stats stats = WeeklySketches.stats(List.of(truncated, another, whole),
+                LocalDate.ofEpochDay(lastWeek), 1_000);
+        assertExact(weeks.get(lastWeek), 1, stats);
+    }
+
+    private static NavigableMap<Long, List<Integer>> rowsByWeek() {
+        NavigableMap<Long, List<Integer>> weeks = new TreeMap<>();
+        for (int row = 0; row < dataset.size(); row++) {
+            long week = WeeklySketches.weekStart(EpochTime.epochDay(dataset.epochSecond(row)));
+            weeks.computeIfAbsent(week, ignored -> new ArrayList<>()).add(row);
+        }
+        return weeks;
+    }
+
+    // Plays and minutes exactly, distinct counts within three standard errors, and the complete top lists
+    // exactly, as every week of the fixture fits the sketches' capacity
+    private static void assertExact(List<Integer> rows, int datasets, WeeklySketches.Stats stats) {
+        long msPlayed = 0;
+        Set<String> tracks = new HashSet<>();
+        Set<String> artists = new HashSet<>();
+        Set<String> albums = new HashSet<>();
+        Map<String, Long> trackPlays = new HashMap<>();
+        Map<String, String> trackNames = new HashMap<>();
+        Map<String, Long> artistPlays = new HashMap<>();
+        for (int row : rows) {
+            msPlayed += dataset.msPlayed(row);
+            String uri = dataset.trackUris().decode(dataset.trackUriCode(row));
+            if (!uri.isEmpty()) {
+                tracks.add(uri);
+                trackPlays.merge(uri, 1L, Long::sum);
+                trackNames.putIfAbsent(uri, dataset.trackNames().decode(dataset.trackNameCode(row)));
+            }
+            String artist = dataset.artistNames().decode(dataset.artistNameCode(row));
+            if (!artist.isEmpty()) {
+                artists.add(artist);
+                albums.add(dataset.albumNames().decode(dataset.albumNameCode(row)));
+                artistPlays.merge(artist, 1L, Long::sum);
+            }
+        }
+        assertEquals(datasets, stats.datasets());
+        assertEquals(rows.size(), stats.plays());
+        assertEquals(msPlayed / 60_000, stats.minutesPlayed());
+        assertDistinct(tracks.size(), stats.uniqueSongs(), stats.distinctRelativeError());
+        assertDistinct(artists.size(), stats.artists(), stats.distinctRelativeError());
+        assertDistinct(albums.size(), stats.albums(), stats.distinctRelativeError());
+        assertEquals(top(trackPlays).stream()
+                        .map(e -> new WeeklySketches.Top(trackNames.get(e.getKey()), e.getKey(), e.getValue(), 0)).toList(),
+                stats.topSongs());
+        assertEquals(top(artistPlays).stream()
+                        .map(e -> new WeeklySketches.Top(e.getKey(), null, e.getValue(), 0)).toList(),
+                stats.topArtists());
+    }
+
+    private static void assertDistinct(int exact, long estimate, double relativeError) {
+        assertTrue(Math.abs(estimate - exact) <= Math.max(1, 3 * relativeError * exact),
+                exact + " distinct estimated as " + estimate);
+    }
+
+    // Most plays first, then by key, like SpaceSaving.top
+    private static List<Map.Entry<String, Long>> top(Map<String, Long> plays) {
+        return plays.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .toList();
+    }
+}